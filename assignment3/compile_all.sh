@@ -3,4 +3,4 @@ if ! [ -d classes ];
 then
    mkdir classes
 fi
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java
+javac -cp . -d classes ir/Accumulator.java ir/BKTree.java ir/CompressionType.java ir/DocumentNorms.java ir/DocumentTable.java ir/EditDistance.java ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/LinkGraph.java ir/MappedFile.java ir/NormalizationType.java ir/PageRank.java ir/PageRankScores.java ir/PersistentHashedIndex.java ir/PostingsCodec.java ir/PostingsCursor.java ir/PostingsEntry.java ir/PostingsList.java ir/PruningTest.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/ScoreBounds.java ir/Searcher.java ir/SearchGUI.java ir/Simple8bCodec.java ir/SpellChecker.java ir/SpellingBackend.java ir/SpellingOptionsDialog.java ir/TermDictionary.java ir/Tokenizer.java ir/TokenPatterns.java ir/TokenSink.java ir/TokenTest.java ir/TopKHeap.java ir/VByteCodec.java
@@ -0,0 +1,95 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * Score accumulators for term-at-a-time ranking: a dense array of scores
+ * indexed by docID, and the list of the documents that have a score.
+ * Only these entries are reset after a query, so a query costs time in
+ * the number of matching documents, not in the size of the collection.
+ *
+ * The accumulators are reused: every thread has its own (see
+ * <code>forThread</code>), so concurrent queries neither share nor
+ * allocate them.
+ */
+public class Accumulator {
+
+    private static final ThreadLocal<Accumulator> POOL = ThreadLocal.withInitial(Accumulator::new);
+
+    /** The scores, by docID. */
+    private double[] scores = new double[0];
+
+    /** True for the documents that have a score. */
+    private boolean[] present = new boolean[0];
+
+    /** The documents that have a score, in the order they got one. */
+    private int[] touched = new int[16];
+
+    /** Number of documents that have a score. */
+    private int size = 0;
+
+    /**
+     * Returns the empty accumulator of the calling thread, with room for
+     * docIDs below <code>n</code>.
+     */
+    public static Accumulator forThread(int n) {
+        Accumulator acc = POOL.get();
+        acc.clear();
+        acc.ensureCapacity(n);
+        return acc;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > scores.length) {
+            scores = Arrays.copyOf(scores, Math.max(n, scores.length + scores.length / 2));
+            present = Arrays.copyOf(present, scores.length);
+        }
+    }
+
+    /** Adds <code>score</code> to the score of <code>docID</code>. */
+    public void add(int docID, double score) {
+        if (docID >= scores.length) {
+            ensureCapacity(docID + 1);
+        }
+        if (present[docID]) {
+            scores[docID] += score;
+        } else {
+            present[docID] = true;
+            scores[docID] = score;
+            if (size == touched.length) {
+                touched = Arrays.copyOf(touched, 2 * size);
+            }
+            touched[size++] = docID;
+        }
+    }
+
+    /** Returns true if <code>docID</code> has a score. */
+    public boolean contains(int docID) {
+        return docID < present.length && present[docID];
+    }
+
+    /** Number of documents that have a score. */
+    public int size() {
+        return size;
+    }
+
+    /** Offers all documents that have a score to <code>heap</code>. */
+    public void addTo(TopKHeap heap) {
+        for (int i = 0; i < size; i++) {
+            heap.add(touched[i], scores[touched[i]]);
+        }
+    }
+
+    /** Removes all scores. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            present[touched[i]] = false;
+        }
+        size = 0;
+    }
+}
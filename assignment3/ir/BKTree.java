@@ -0,0 +1,131 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * A BK-tree of the terms of a dictionary, which finds every term within
+ * a given edit distance of a word (see EditDistance).
+ *
+ * Every term is a node, and a child hangs under its parent by the edge
+ * of their distance. Since the distance is a metric, a term within
+ * <code>max</code> of the word can only be under the child edges within
+ * <code>max</code> of the distance of the node to the word, so the
+ * search only descends into those.
+ *
+ * The nodes are the term IDs, and the tree is kept in arrays indexed by
+ * term ID: the first child, the next sibling and the edge of every node.
+ */
+public class BKTree {
+
+    /** Any bound above the length of every word gives the exact distance. */
+    private static final int EXACT = Integer.MAX_VALUE / 2;
+
+    /** Receives the terms found by <code>search</code>. */
+    public interface Match {
+        public void term(int termID, int distance);
+    }
+
+    /** The terms, with their term IDs */
+    private final TermDictionary terms;
+
+    /** The first child, the next sibling and the distance to the parent of every node, or -1 */
+    private int[] firstChild = new int[0];
+    private int[] nextSibling = new int[0];
+    private int[] edge = new int[0];
+
+    /** The ID of the last inserted term */
+    private int lastTermID = -1;
+
+    /** Computes the distances of the term being inserted, given every new term */
+    private final EditDistance inserted = new EditDistance("");
+
+    /** Creates a BK-tree of the terms of <code>terms</code>. */
+    public BKTree(TermDictionary terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * Inserts the terms added to the dictionary since the last time.
+     */
+    public void insertNewTerms() {
+        int size = terms.size();
+        if (size > firstChild.length) {
+            firstChild = grow(firstChild, size);
+            nextSibling = grow(nextSibling, size);
+            edge = grow(edge, size);
+        }
+        while (lastTermID + 1 < size) {
+            insert(++lastTermID);
+        }
+    }
+
+    private static int[] grow(int[] a, int size) {
+        int[] b = new int[Math.max(size, 2 * a.length)];
+        System.arraycopy(a, 0, b, 0, a.length);
+        Arrays.fill(b, a.length, b.length, -1);
+        return b;
+    }
+
+    /** Inserts the term with ID <code>termID</code>; term 0 is the root. */
+    private void insert(int termID) {
+        if (termID == 0) {
+            return;
+        }
+        EditDistance distance = inserted;
+        distance.setPattern(terms.term(termID));
+        int node = 0;
+        while (true) {
+            int d = distance.distance(terms.term(node), EXACT);
+            int child = firstChild[node];
+            while (child >= 0 && edge[child] != d) {
+                child = nextSibling[child];
+            }
+            if (child < 0) {
+                edge[termID] = d;
+                nextSibling[termID] = firstChild[node];
+                firstChild[node] = termID;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Gives <code>match</code> every term within <code>max</code> of
+     * <code>word</code>, with its distance.
+     *
+     * @return The number of distances computed.
+     */
+    public int search(String word, int max, Match match) {
+        if (lastTermID < 0) {
+            return 0;
+        }
+        EditDistance distance = new EditDistance(word);
+        int[] stack = new int[64];
+        int size = 0;
+        int computed = 0;
+        stack[size++] = 0;
+        while (size > 0) {
+            int node = stack[--size];
+            int d = distance.distance(terms.term(node), EXACT);
+            computed++;
+            if (d <= max) {
+                match.term(node, d);
+            }
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (Math.abs(edge[child] - d) <= max) {
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * size);
+                    }
+                    stack[size++] = child;
+                }
+            }
+        }
+        return computed;
+    }
+}
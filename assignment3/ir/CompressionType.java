@@ -0,0 +1,14 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ *  The different ways of compressing the postings lists of a
+ *  persistent index.
+ */
+public enum CompressionType {
+    VBYTE, SIMPLE8B
+}
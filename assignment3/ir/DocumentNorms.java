@@ -0,0 +1,94 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The lengths of the documents used to normalize tf-idf scores, in dense
+ * arrays indexed by docID: the number of words of each document, and the
+ * Euclidean length of its tf-idf vector.
+ *
+ * The norms are computed when an index is committed, since the Euclidean
+ * lengths depend on the idf of every term: first the word counts are set
+ * with the constructor, then every postings list is added with
+ * <code>add</code>, and finally <code>finish</code> is called.
+ */
+public class DocumentNorms {
+
+    /** The number of words of each document. */
+    private double[] words;
+
+    /** The Euclidean length of the tf-idf vector of each document. */
+    private double[] euclidean;
+
+    /** Creates the norms of the documents of <code>documents</code>. */
+    public DocumentNorms(DocumentTable documents) {
+        int n = documents.capacity();
+        words = new double[n];
+        euclidean = new double[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = documents.length(i);
+        }
+    }
+
+    private DocumentNorms(double[] words, double[] euclidean) {
+        this.words = words;
+        this.euclidean = euclidean;
+    }
+
+    /** Adds the tf-idf weights of the postings of a term to the Euclidean lengths. */
+    public void add(PostingsList pl, double idf) {
+        PostingsCursor c = pl.cursor();
+        while (c.next()) {
+            double w = c.tf() * idf;
+            euclidean[c.docID()] += w * w;
+        }
+    }
+
+    /** Computes the Euclidean lengths once all postings lists are added. */
+    public void finish() {
+        for (int i = 0; i < euclidean.length; i++) {
+            // A document whose terms all have idf 0 scores 0 anyway
+            euclidean[i] = euclidean[i] > 0 ? Math.sqrt(euclidean[i]) : 1;
+        }
+    }
+
+    /** Returns the norms of the given type, indexed by docID. */
+    public double[] lengths(NormalizationType type) {
+        return type == NormalizationType.EUCLIDEAN ? euclidean : words;
+    }
+
+    /** Writes the norms to <code>file</code>. */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocate(4 + 16 * words.length);
+            buf.putInt(words.length);
+            buf.asDoubleBuffer().put(words).put(euclidean);
+            buf.clear();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /** Reads norms written by <code>write</code>. */
+    public static DocumentNorms read(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            }
+            buf.flip();
+            int n = buf.getInt();
+            double[] words = new double[n];
+            double[] euclidean = new double[n];
+            buf.asDoubleBuffer().get(words).get(euclidean);
+            return new DocumentNorms(words, euclidean);
+        }
+    }
+}
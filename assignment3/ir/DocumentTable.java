@@ -0,0 +1,192 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The names (paths) and lengths in words of the documents of an index,
+ * indexed by docID.
+ *
+ * While an index is built the table is kept in arrays. A committed table
+ * is written to a file, with the lengths first and then a string table of
+ * the names:
+ *
+ *   number of documents, size of the docID range (ints),
+ *   the length of every document (ints),
+ *   the length in bytes of the name of every document (ints),
+ *   where the name of every document starts (longs),
+ *   the names (UTF-8).
+ *
+ * The file is memory-mapped the first time a table read from disk is
+ * used. The lengths are then copied to an array, while the names are
+ * decoded from the mapped file when they are asked for.
+ */
+public class DocumentTable {
+
+    /** The names of the documents, or null if they are in the mapped file. */
+    private String[] names = new String[16];
+
+    /** The lengths of the documents in words. */
+    private int[] lengths = new int[16];
+
+    /** Number of documents. */
+    private int size = 0;
+
+    /** Number of docIDs up to the largest one. */
+    private int capacity = 0;
+
+    /** The file this table is read from, until it is loaded. */
+    private volatile File file;
+
+    /** The mapped file, if this table was read from disk. */
+    private MappedFile mapped;
+
+    /** Where the name offsets start in the mapped file. */
+    private long starts;
+
+    /** Creates an empty table. */
+    public DocumentTable() {
+    }
+
+    /**
+     * Creates a table read from <code>file</code>, written by
+     * <code>write</code>. The file is not read until the table is used.
+     */
+    public DocumentTable(File file) {
+        this.file = file;
+    }
+
+    /** Maps the file of the table into memory, the first time it is needed. */
+    private synchronized void load() {
+        if (file == null) {
+            return;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            mapped = new MappedFile(f, MappedFile.SEGMENT_SIZE);
+            size = mapped.getInt(0);
+            capacity = mapped.getInt(4);
+            lengths = new int[capacity];
+            mapped.slice(8, 4 * capacity).asIntBuffer().get(lengths);
+            starts = 8 + 8L * capacity;
+            names = null;
+        } catch (FileNotFoundException e) {
+            lengths = new int[0];
+        } catch (IOException e) {
+            e.printStackTrace();
+            lengths = new int[0];
+        }
+        file = null;
+    }
+
+    /**
+     * Registers a document. Documents may be registered by several
+     * indexing threads at once. A table read from disk can't be changed.
+     */
+    public synchronized void add(int docID, String name, int length) {
+        if (docID >= lengths.length) {
+            int n = Math.max(docID + 1, 2 * lengths.length);
+            lengths = Arrays.copyOf(lengths, n);
+            names = Arrays.copyOf(names, n);
+        }
+        if (names[docID] == null) {
+            size++;
+        }
+        names[docID] = name;
+        lengths[docID] = length;
+        capacity = Math.max(capacity, docID + 1);
+    }
+
+    /** Number of documents. */
+    public int size() {
+        if (file != null) {
+            load();
+        }
+        return size;
+    }
+
+    /** Number of docIDs up to the largest one; every docID is smaller. */
+    public int capacity() {
+        if (file != null) {
+            load();
+        }
+        return capacity;
+    }
+
+    /** Returns the length in words of a document. */
+    public int length(int docID) {
+        if (file != null) {
+            load();
+        }
+        return lengths[docID];
+    }
+
+    /** Returns the name of a document, or null if there is no such document. */
+    public String name(int docID) {
+        if (file != null) {
+            load();
+        }
+        if (names != null) {
+            return docID < names.length ? names[docID] : null;
+        }
+        if (docID < 0 || docID >= capacity) {
+            return null;
+        }
+        int length = mapped.getInt(8 + 4L * capacity + 4L * docID);
+        if (length == 0) {
+            return null;
+        }
+        ByteBuffer buf = mapped.slice(mapped.getLong(starts + 8L * docID), length);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the table to <code>file</code>. */
+    public void write(File file) throws IOException {
+        if (this.file != null) {
+            load();
+        }
+        byte[][] encoded = new byte[capacity][];
+        long[] nameStarts = new long[capacity];
+        long ptr = 8 + 16L * capacity;
+        for (int i = 0; i < capacity; i++) {
+            String name = name(i);
+            encoded[i] = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+            // A name must not cross a segment boundary of the mapped file
+            ptr += MappedFile.padding(ptr, encoded[i].length, MappedFile.SEGMENT_SIZE);
+            nameStarts[i] = ptr;
+            ptr += encoded[i].length;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), PersistentHashedIndex.BUFFER_SIZE))) {
+            out.writeInt(size);
+            out.writeInt(capacity);
+            for (int i = 0; i < capacity; i++) {
+                out.writeInt(lengths[i]);
+            }
+            for (int i = 0; i < capacity; i++) {
+                out.writeInt(encoded[i].length);
+            }
+            for (int i = 0; i < capacity; i++) {
+                out.writeLong(nameStarts[i]);
+            }
+            long written = 8 + 16L * capacity;
+            for (int i = 0; i < capacity; i++) {
+                for (; written < nameStarts[i]; written++) {
+                    out.write(0);
+                }
+                out.write(encoded[i]);
+                written += encoded[i].length;
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The edit distance of a fixed word (the pattern) to other words, where
+ * inserting or deleting a character costs 1 and substituting one costs 2.
+ * Since a substitution costs as much as a deletion and an insertion, the
+ * distance of words of lengths n and m is n + m - 2 LCS, where LCS is the
+ * length of their longest common subsequence.
+ *
+ * For a pattern of at most 64 characters the LCS is computed bit-parallel
+ * (Allison and Dix; Hyyro): one machine word holds a column of the LCS
+ * table, and every character of the other word costs a few word
+ * operations. The match masks of the pattern are computed once, so an
+ * EditDistance is made for every misspelled term and used for all its
+ * candidates. Longer patterns fall back to dynamic programming. An
+ * EditDistance can also be given a new pattern (<code>setPattern</code>),
+ * which only clears the masks of the old one, as the BK-tree does for
+ * every term it inserts.
+ */
+public class EditDistance {
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final long[] NO_MASKS = new long[0];
+
+    /** The pattern. */
+    private String pattern;
+
+    /** The positions of the ASCII characters in the pattern, as bit masks. */
+    private final long[] ascii = new long[128];
+
+    /** The other characters of the pattern, and their bit masks. */
+    private char[] others = NO_CHARS;
+    private long[] otherMasks = NO_MASKS;
+
+    /** The bits of the positions of the pattern. */
+    private long all;
+
+    public EditDistance(String pattern) {
+        setPattern(pattern);
+    }
+
+    /** Makes <code>pattern</code> the pattern, in place of the old one. */
+    public void setPattern(String pattern) {
+        if (this.pattern != null && this.pattern.length() <= 64) {
+            for (int i = 0; i < this.pattern.length(); i++) {
+                char c = this.pattern.charAt(i);
+                if (c < 128) {
+                    ascii[c] = 0;
+                }
+            }
+            others = NO_CHARS;
+            otherMasks = NO_MASKS;
+        }
+        this.pattern = pattern;
+        int m = pattern.length();
+        all = m >= 64 ? -1L : (1L << m) - 1;
+        if (m > 64) {
+            return;
+        }
+        for (int i = 0; i < m; i++) {
+            char c = pattern.charAt(i);
+            if (c < 128) {
+                ascii[c] |= 1L << i;
+                continue;
+            }
+            int j = 0;
+            while (j < others.length && others[j] != c) {
+                j++;
+            }
+            if (j == others.length) {
+                others = Arrays.copyOf(others, j + 1);
+                otherMasks = Arrays.copyOf(otherMasks, j + 1);
+                others[j] = c;
+            }
+            otherMasks[j] |= 1L << i;
+        }
+    }
+
+    /** Returns the positions of <code>c</code> in the pattern, as a bit mask. */
+    private long mask(char c) {
+        if (c < 128) {
+            return ascii[c];
+        }
+        for (int j = 0; j < others.length; j++) {
+            if (others[j] == c) {
+                return otherMasks[j];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the distance of the pattern to <code>word</code>, or
+     * <code>max + 1</code> if it is larger than <code>max</code>.
+     */
+    public int distance(String word, int max) {
+        int n = pattern.length(), m = word.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        if (n > 64) {
+            return dp(pattern, word, max);
+        }
+        // A 0 bit in v marks a position of the pattern where the LCS
+        // column steps up
+        long v = -1L;
+        for (int j = 0; j < m; j++) {
+            long u = v & mask(word.charAt(j));
+            v = (v + u) | (v - u);
+        }
+        int lcs = Long.bitCount(~v & all);
+        return Math.min(n + m - 2 * lcs, max + 1);
+    }
+
+    /**
+     * Returns the distance of two words by dynamic programming, or
+     * <code>max + 1</code> if it is larger than <code>max</code>. Only the
+     * cells within <code>max</code> of the diagonal are computed, and the
+     * computation stops as soon as a row has no cell within
+     * <code>max</code>.
+     */
+    static int dp(String s1, String s2, int max) {
+        int n = s1.length(), m = s2.length();
+        int d = max;
+        if (Math.abs(n - m) > d) {
+            return d + 1;
+        }
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = Math.min(j, d + 1);
+        }
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - d), to = Math.min(m, i + d);
+            // The cell left of the band is out of reach
+            cur[from - 1] = from == 1 ? Math.min(i, d + 1) : d + 1;
+            int min = cur[from - 1];
+            char c = s1.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int dist = prev[j - 1] + (c == s2.charAt(j - 1) ? 0 : 2);
+                dist = Math.min(dist, cur[j - 1] + 1);
+                if (j < i + d) {
+                    // prev[j] is in the band of the row above
+                    dist = Math.min(dist, prev[j] + 1);
+                }
+                cur[j] = Math.min(dist, d + 1);
+                min = Math.min(min, cur[j]);
+            }
+            if (min > d) {
+                return d + 1;
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m];
+    }
+
+    /**
+     * Compares the bit-parallel distance with dynamic programming on random
+     * pairs of words, checking that they agree, also when one EditDistance
+     * is given every pattern.
+     *
+     * Usage: java ir.EditDistance [-n pairs] [-l max_length] [-d max_distance]
+     */
+    public static void main(String[] args) {
+        int pairs = 200000, maxLength = 12, max = 2;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("-n".equals(args[i])) {
+                pairs = Integer.parseInt(args[i + 1]);
+            } else if ("-l".equals(args[i])) {
+                maxLength = Integer.parseInt(args[i + 1]);
+            } else if ("-d".equals(args[i])) {
+                max = Integer.parseInt(args[i + 1]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        // Every pattern is compared to 100 words that are mostly close to
+        // it, as a misspelled term is to its candidates
+        String alphabet = "abcdefgh\u00e4";
+        Random random = new Random(42);
+        String[] patterns = new String[pairs];
+        String[] words = new String[pairs];
+        for (int i = 0; i < pairs; i++) {
+            if (i % 100 == 0) {
+                StringBuilder sb = new StringBuilder();
+                int length = 1 + random.nextInt(maxLength);
+                for (int j = 0; j < length; j++) {
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                patterns[i] = sb.toString();
+            } else {
+                patterns[i] = patterns[i - 1];
+            }
+            StringBuilder sb = new StringBuilder(patterns[i]);
+            for (int e = random.nextInt(max + 2); e > 0; e--) {
+                int p = random.nextInt(sb.length() + 1);
+                if (random.nextBoolean() || p == sb.length()) {
+                    sb.insert(p, alphabet.charAt(random.nextInt(alphabet.length())));
+                } else {
+                    sb.deleteCharAt(p);
+                }
+            }
+            words[i] = sb.toString();
+        }
+
+        int[] expected = new int[pairs];
+        int mismatches = 0;
+        // A few rounds; the first ones warm up the JIT
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < pairs; i++) {
+                expected[i] = dp(patterns[i], words[i], max);
+            }
+            long dpTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            mismatches = 0;
+            for (int i = 0; i < pairs; i++) {
+                if (new EditDistance(patterns[i]).distance(words[i], max) != expected[i]) {
+                    mismatches++;
+                }
+            }
+            long bitTime = System.nanoTime() - start;
+
+            // One EditDistance given every pattern, as the BK-tree does
+            start = System.nanoTime();
+            long sum = 0;
+            EditDistance shared = new EditDistance("");
+            for (int i = 0; i < pairs; i++) {
+                shared.setPattern(patterns[i]);
+                int d = shared.distance(words[i], max);
+                if (d != expected[i]) {
+                    mismatches++;
+                }
+                sum += d;
+            }
+            long setTime = System.nanoTime() - start;
+
+            // The masks of a pattern are computed once for all its words, as
+            // for the candidates of a term
+            start = System.nanoTime();
+            EditDistance prepared = null;
+            for (int i = 0; i < pairs; i++) {
+                if (i % 100 == 0) {
+                    prepared = new EditDistance(patterns[i]);
+                }
+                sum += prepared.distance(words[i], max);
+            }
+            long reusedTime = System.nanoTime() - start;
+
+            System.err.println(String.format(
+                    "dp %.1f ns/pair, bit-parallel %.1f ns/pair, %.1f with a new pattern set, %.1f with reused masks (%d)",
+                    (double) dpTime / pairs, (double) bitTime / pairs, (double) setTime / pairs,
+                    (double) reusedTime / pairs, sum));
+        }
+        System.err.println(mismatches + " mismatches");
+    }
+}
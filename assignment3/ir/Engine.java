@@ -9,6 +9,7 @@ package ir;
 
 import java.util.ArrayList;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * This is the main class for the search engine.
@@ -16,9 +17,7 @@ import java.io.File;
 public class Engine {
 
     /** The inverted index. */
-    Index index = new HashedIndex();
-    // Assignment 1.7: Comment the line above and uncomment the next line
-    // Index index = new PersistentHashedIndex();
+    Index index;
 
     /** The indexer creating the search index. */
     Indexer indexer;
@@ -26,16 +25,11 @@ public class Engine {
     /** The searcher used to search the index. */
     Searcher searcher;
 
-    /** K-gram index */
-    // KGramIndex kgIndex = null;
-
-    // Assignment 3: Comment the line above and uncomment the next line
-    KGramIndex kgIndex = new KGramIndex(2);
+    /** K-gram index, over the terms of the index */
+    KGramIndex kgIndex;
 
     /** Spell checker */
     SpellChecker speller;
-    // Assignment 3: Comment the line above and uncomment the next line
-    // SpellChecker = new SpellChecker( index, kgIndex );
 
     /** The engine GUI. */
     SearchGUI gui;
@@ -55,9 +49,37 @@ public class Engine {
     /** The file containing the pageranks. */
     String rank_file = "";
 
+    /** The files containing the link graph and the page titles, for HITS. */
+    String links_file = null;
+    String titles_file = null;
+
+    /** Max number of pages linking to a page that HITS adds to a base set, or 0 for the default. */
+    int in_link_limit = 0;
+
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Whether the index is stored on disk (PersistentHashedIndex). */
+    boolean is_persistent = false;
+
+    /**
+     * Bytes of heap a persistent index may use while indexing before it
+     * writes a block to disk.
+     */
+    long memory_budget = Runtime.getRuntime().maxMemory() / 4;
+
+    /** How the postings of a persistent index are compressed. */
+    CompressionType compression = CompressionType.VBYTE;
+
+    /** Number of indexing threads, or 0 for one per core. */
+    int threads = 0;
+
+    /** How the spelling checker finds candidate corrections. */
+    SpellingBackend spelling_backend = SpellingBackend.KGRAM;
+
+    /** Whether ranked queries skip the documents that cannot get into the top k. */
+    boolean pruning = true;
+
     /* ----------------------------------------------- */
 
     /**
@@ -66,8 +88,19 @@ public class Engine {
      */
     public Engine(String[] args) {
         decodeArgs(args);
+        if (is_persistent) {
+            index = new PersistentHashedIndex(!is_indexing, memory_budget, compression);
+        } else {
+            index = new HashedIndex();
+        }
+        kgIndex = new KGramIndex(2, index.terms());
+        speller = new SpellChecker(index, kgIndex);
         indexer = new Indexer(index, kgIndex, patterns_file);
+        if (threads > 0) {
+            indexer.threads = threads;
+        }
         searcher = new Searcher(index, kgIndex);
+        searcher.pruning = pruning;
         gui = new SearchGUI(this);
         gui.init();
         /*
@@ -87,13 +120,73 @@ public class Engine {
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 gui.displayInfoText(String.format("Indexing done in %.1f seconds.", elapsedTime / 1000.0));
                 index.cleanup();
+                speller.setBackend(spelling_backend);
+                loadPageRanks();
+                loadLinkGraph();
             }
         } else {
+            synchronized (indexLock) {
+                kgIndex.insertNewTerms();
+                speller.setBackend(spelling_backend);
+                loadPageRanks();
+                loadLinkGraph();
+            }
             gui.displayInfoText("Index is loaded from disk");
         }
-        System.out.println("ve " + kgIndex.searchK("ve"));
-        System.out.println("th he " + kgIndex.searchK("th he"));
+    }
 
+    /**
+     * Gives the searcher the PageRank scores of the documents. They are
+     * read from the rank file, if one is given, and then stored with a
+     * persistent index; otherwise a persistent index read from disk uses
+     * the scores stored with it.
+     */
+    private void loadPageRanks() {
+        File stored = new File(PersistentHashedIndex.INDEXDIR, PersistentHashedIndex.PAGERANK_FNAME);
+        try {
+            if (!rank_file.isEmpty()) {
+                searcher.pageRanks = PageRankScores.read(new File(rank_file), index.documents());
+                if (is_persistent) {
+                    searcher.pageRanks.write(stored);
+                }
+            } else if (!is_indexing && stored.exists()) {
+                searcher.pageRanks = PageRankScores.load(stored);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading PageRank scores: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the link graph for HITS ranking, if one is given, once for all
+     * queries, and reports the time and memory it takes.
+     */
+    private void loadLinkGraph() {
+        if (links_file == null) {
+            return;
+        }
+        if (titles_file == null) {
+            System.err.println("The link graph needs a titles file (-gt titles_file)");
+            return;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long startTime = System.currentTimeMillis();
+        HITSRanker ranker = new HITSRanker(links_file, titles_file, index);
+        if (ranker.graph == null) {
+            return;
+        }
+        if (in_link_limit > 0) {
+            ranker.setInLinkLimit(in_link_limit);
+        }
+        ranker.mapDocuments();
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        System.err.println(String.format("Link graph of %d pages and %d links loaded in %.1f seconds, using %.1f MB",
+                ranker.graph.n, ranker.graph.links(), elapsedTime / 1000.0, used / (1024.0 * 1024.0)));
+        searcher.hitsRanker = ranker;
     }
 
     /* ----------------------------------------------- */
@@ -124,9 +217,51 @@ public class Engine {
                 if (i < args.length) {
                     rank_file = args[i++];
                 }
+            } else if ("-g".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    links_file = args[i++];
+                }
+            } else if ("-gt".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    titles_file = args[i++];
+                }
+            } else if ("-hl".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    in_link_limit = Integer.parseInt(args[i++]);
+                }
             } else if ("-ni".equals(args[i])) {
                 i++;
                 is_indexing = false;
+                is_persistent = true;
+            } else if ("-pi".equals(args[i])) {
+                i++;
+                is_persistent = true;
+            } else if ("-c".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    compression = CompressionType.valueOf(args[i++].toUpperCase());
+                }
+            } else if ("-sb".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    spelling_backend = SpellingBackend.valueOf(args[i++].toUpperCase());
+                }
+            } else if ("-t".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    threads = Integer.parseInt(args[i++]);
+                }
+            } else if ("-mb".equals(args[i])) {
+                i++;
+                if (i < args.length) {
+                    memory_budget = Long.parseLong(args[i++]) * 1024 * 1024;
+                }
+            } else if ("-np".equals(args[i])) {
+                i++;
+                pruning = false;
             } else {
                 System.err.println("Unknown option: " + args[i]);
                 break;
@@ -2,6 +2,17 @@
  *   Computes the Hubs and Authorities for an every document in a query-specific
  *   link graph, induced by the base set of pages.
  *
+ *   The link graph is a LinkGraph, an adjacency matrix in compressed sparse
+ *   row form together with its transpose. The base set of a query is the
+ *   root set (the pages matching the query), all pages they link to, and
+ *   the pages linking to them. A page that many pages link to would bring
+ *   them all into the base set, so at most <code>inLinkLimit</code> of its
+ *   in-links are taken, evenly spread over them. The graph it induces is
+ *   built in the same form, and the hub and authority scores are dense
+ *   double arrays over its nodes.
+ *   The induced graphs of recent root sets are cached with their scores,
+ *   so a repeated query costs a cache lookup.
+ *
  *   @author Dmytro Kalpakchi
  */
 
@@ -24,25 +35,61 @@ public class HITSRanker {
      */
     final static double EPSILON = 0.001;
 
+    /**
+     *   Number of base sets whose induced graphs are cached
+     */
+    final static int CACHE_SIZE = 64;
+
+    /**
+     *   Max number of pages linking to a root page that are added to the base set
+     */
+    int inLinkLimit = 50;
+
     /**
      *   The inverted index
      */
     Index index;
 
     /**
-     *   Mapping from the titles to internal document ids used in the links file
+     *   Mapping from the titles to the nodes of the link graph
      */
     HashMap<String,Integer> titleToId = new HashMap<String,Integer>();
 
     /**
-     *   Sparse vector containing hub scores
+     *   The link graph, numbering the nodes of the links file 0, 1, ...
+     */
+    LinkGraph graph;
+
+    /**
+     *   The node of every docID of the index, or -1 (built when first needed)
      */
-    HashMap<Integer,Double> hubs;
+    int[] docToNode;
 
     /**
-     *   Sparse vector containing authority scores
+     *   The docID of every node, or -1
      */
-    HashMap<Integer,Double> authorities;
+    int[] nodeToDoc;
+
+    /**
+     *   The nodes of the graph last iterated, and their hub and authority scores
+     */
+    int[] nodes;
+    double[] hubs;
+    double[] authorities;
+
+    /**
+     *   The local number of every node of the base set being built, or -1
+     */
+    private int[] local;
+
+    /**
+     *   The induced graphs of recent root sets, least recently used first
+     */
+    private LinkedHashMap<RootSet,Subgraph> cache = new LinkedHashMap<RootSet,Subgraph>( 16, 0.75f, true ) {
+        protected boolean removeEldestEntry( Map.Entry<RootSet,Subgraph> eldest ) {
+            return size() > CACHE_SIZE;
+        }
+    };
 
     
     /* --------------------------------------------- */
@@ -102,20 +149,289 @@ public class HITSRanker {
      * @param      titlesFilename  File containing the mapping between nodeIDs and pages titles
      */
     void readDocs( String linksFilename, String titlesFilename ) {
-        //
-        // YOUR CODE HERE
-        //
+        try {
+            graph = new LinkGraph( linksFilename );
+            String[] titles = graph.readTitles( titlesFilename );
+            for ( int node = 0; node < graph.n; node++ ) {
+                if ( titles[node] != null ) {
+                    titleToId.put( titles[node], node );
+                }
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading the link graph: " + e.getMessage() );
+            graph = null;
+        }
+        local = new int[graph == null ? 0 : graph.n];
+        Arrays.fill( local, -1 );
+    }
+
+
+    /**
+     * Maps the docIDs of the index to the nodes of the graph by their file names,
+     * unless it is done already.
+     */
+    synchronized void mapDocuments() {
+        if ( docToNode != null || graph == null ) {
+            return;
+        }
+        DocumentTable documents = index.documents();
+        docToNode = new int[documents.capacity()];
+        nodeToDoc = new int[graph.n];
+        Arrays.fill( docToNode, -1 );
+        Arrays.fill( nodeToDoc, -1 );
+        for ( int docID = 0; docID < docToNode.length; docID++ ) {
+            String name = documents.name( docID );
+            Integer node = name == null ? null : titleToId.get( getFileName( name ));
+            if ( node != null ) {
+                docToNode[docID] = node;
+                nodeToDoc[node] = docID;
+            }
+        }
+    }
+
+
+    /**
+     * The graph induced by a base set: its nodes in increasing order, the
+     * links between them (numbered by their positions in <code>nodes</code>)
+     * in CSR form and transposed, and its hub and authority scores once
+     * they are computed.
+     */
+    private static class Subgraph {
+        int[] nodes;
+        int[] outStart, outLinks, inStart, inLinks;
+        double[] hubs, authorities;
+    }
+
+
+    /**
+     * A root set, as the sorted array of its nodes, usable as a map key
+     */
+    private static class RootSet {
+        final int[] nodes;
+        final int hash;
+
+        RootSet( int[] nodes ) {
+            this.nodes = nodes;
+            this.hash = Arrays.hashCode( nodes );
+        }
+
+        public boolean equals( Object o ) {
+            return o instanceof RootSet && Arrays.equals( nodes, ((RootSet) o).nodes );
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+
+    /**
+     * Returns the graph induced by the root set <code>roots</code> (sorted, no
+     * repeats), the pages it links to, and a sample of the pages linking to it.
+     */
+    private Subgraph baseSet( int[] roots ) {
+        Subgraph g = new Subgraph();
+        if ( roots.length == graph.n ) {
+            // All pages; the graph itself
+            g.nodes = roots;
+            g.outStart = graph.outStart;
+            g.outLinks = graph.outLinks;
+            g.inStart = graph.inStart;
+            g.inLinks = graph.inLinks;
+            return g;
+        }
+
+        int[] base = new int[Math.max( 16, 2 * roots.length )];
+        int size = 0;
+        for ( int root : roots ) {
+            if ( local[root] < 0 ) {
+                local[root] = 0;
+                base = add( base, size++, root );
+            }
+            for ( int k = graph.outStart[root]; k < graph.outStart[root + 1]; k++ ) {
+                int node = graph.outLinks[k];
+                if ( local[node] < 0 ) {
+                    local[node] = 0;
+                    base = add( base, size++, node );
+                }
+            }
+            // A sample of the in-links, the sparser the more there are
+            int degree = graph.inStart[root + 1] - graph.inStart[root];
+            int sample = Math.min( degree, inLinkLimit );
+            for ( int i = 0; i < sample; i++ ) {
+                int node = graph.inLinks[graph.inStart[root] + (int) ((long) i * degree / sample)];
+                if ( local[node] < 0 ) {
+                    local[node] = 0;
+                    base = add( base, size++, node );
+                }
+            }
+        }
+        base = Arrays.copyOf( base, size );
+        Arrays.sort( base );
+        for ( int i = 0; i < size; i++ ) {
+            local[base[i]] = i;
+        }
+
+        // The links between the nodes of the base set
+        g.nodes = base;
+        g.outStart = new int[size + 1];
+        int links = 0;
+        for ( int i = 0; i < size; i++ ) {
+            int node = base[i];
+            for ( int k = graph.outStart[node]; k < graph.outStart[node + 1]; k++ ) {
+                if ( local[graph.outLinks[k]] >= 0 ) {
+                    links++;
+                }
+            }
+            g.outStart[i + 1] = links;
+        }
+        g.outLinks = new int[links];
+        g.inStart = new int[size + 1];
+        for ( int i = 0, m = 0; i < size; i++ ) {
+            int node = base[i];
+            for ( int k = graph.outStart[node]; k < graph.outStart[node + 1]; k++ ) {
+                int target = local[graph.outLinks[k]];
+                if ( target >= 0 ) {
+                    g.outLinks[m++] = target;
+                    g.inStart[target + 1]++;
+                }
+            }
+        }
+        for ( int i = 0; i < size; i++ ) {
+            g.inStart[i + 1] += g.inStart[i];
+        }
+        int[] fill = Arrays.copyOf( g.inStart, size );
+        g.inLinks = new int[links];
+        for ( int i = 0; i < size; i++ ) {
+            for ( int k = g.outStart[i]; k < g.outStart[i + 1]; k++ ) {
+                g.inLinks[fill[g.outLinks[k]]++] = i;
+            }
+        }
+
+        for ( int node : base ) {
+            local[node] = -1;
+        }
+        return g;
     }
 
+    private static int[] add( int[] a, int i, int value ) {
+        if ( i == a.length ) {
+            a = Arrays.copyOf( a, 2 * i );
+        }
+        a[i] = value;
+        return a;
+    }
+
+
     /**
      * Perform HITS iterations until convergence
      *
      * @param      titles  The titles of the documents in the root set
      */
-    private void iterate(String[] titles) {
-        //
-        // YOUR CODE HERE
-        //
+    private void iterate( String[] titles ) {
+        int[] roots = new int[titles.length];
+        int n = 0;
+        for ( String title : titles ) {
+            Integer node = titleToId.get( title );
+            if ( node != null ) {
+                roots[n++] = node;
+            }
+        }
+        iterate( rootSet( roots, n ));
+    }
+
+
+    /**
+     * Returns the sorted first <code>n</code> nodes of <code>roots</code>
+     * without repeats.
+     */
+    private static int[] rootSet( int[] roots, int n ) {
+        roots = Arrays.copyOf( roots, n );
+        Arrays.sort( roots );
+        int m = 0;
+        for ( int i = 0; i < n; i++ ) {
+            if ( m == 0 || roots[i] != roots[m - 1] ) {
+                roots[m++] = roots[i];
+            }
+        }
+        return Arrays.copyOf( roots, m );
+    }
+
+
+    /**
+     * Computes the hub and authority scores of the graph induced by the
+     * root set <code>roots</code>, or takes them from the cache, and sets
+     * <code>nodes</code>, <code>hubs</code> and <code>authorities</code>.
+     */
+    private void iterate( int[] roots ) {
+        RootSet key = new RootSet( roots );
+        Subgraph g = cache.get( key );
+        if ( g == null ) {
+            g = baseSet( roots );
+            iterate( g );
+            cache.put( key, g );
+        }
+        nodes = g.nodes;
+        hubs = g.hubs;
+        authorities = g.authorities;
+    }
+
+
+    /**
+     * Runs HITS on <code>g</code>: the authority score of a page is the sum of
+     * the hub scores of the pages linking to it, and the hub score of a page is
+     * the sum of the authority scores of the pages it links to, both scaled to
+     * unit length after every iteration.
+     */
+    private static void iterate( Subgraph g ) {
+        int n = g.nodes.length;
+        double[] h = new double[n], a = new double[n];
+        double[] h2 = new double[n], a2 = new double[n];
+        Arrays.fill( h, 1 / Math.sqrt( n ));
+        Arrays.fill( a, 1 / Math.sqrt( n ));
+        for ( int step = 0; step < MAX_NUMBER_OF_STEPS; step++ ) {
+            for ( int j = 0; j < n; j++ ) {
+                double s = 0;
+                for ( int k = g.inStart[j]; k < g.inStart[j + 1]; k++ ) {
+                    s += h[g.inLinks[k]];
+                }
+                a2[j] = s;
+            }
+            for ( int i = 0; i < n; i++ ) {
+                double s = 0;
+                for ( int k = g.outStart[i]; k < g.outStart[i + 1]; k++ ) {
+                    s += a2[g.outLinks[k]];
+                }
+                h2[i] = s;
+            }
+            normalize( a2 );
+            normalize( h2 );
+            double change = 0;
+            for ( int i = 0; i < n; i++ ) {
+                change = Math.max( change, Math.max( Math.abs( a2[i] - a[i] ), Math.abs( h2[i] - h[i] )));
+            }
+            double[] t = a; a = a2; a2 = t;
+            t = h; h = h2; h2 = t;
+            if ( change < EPSILON ) {
+                break;
+            }
+        }
+        g.hubs = h;
+        g.authorities = a;
+    }
+
+    /** Scales <code>x</code> to unit length, unless it is all zeros. */
+    private static void normalize( double[] x ) {
+        double sum = 0;
+        for ( double v : x ) {
+            sum += v * v;
+        }
+        if ( sum > 0 ) {
+            double norm = Math.sqrt( sum );
+            for ( int i = 0; i < x.length; i++ ) {
+                x[i] /= norm;
+            }
+        }
     }
 
 
@@ -127,63 +443,126 @@ public class HITSRanker {
      *
      * @return     A list of postings ranked according to the hub and authority scores.
      */
-    PostingsList rank(PostingsList post) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+    PostingsList rank( PostingsList post ) {
+        return rank( post, Integer.MAX_VALUE );
     }
 
 
     /**
-     * Sort a hash map by values in the descending order
+     * Rank the documents in the subgraph induced by the documents present
+     * in the postings list `post`, and return the `k` best. The score of
+     * a document is the sum of its hub and authority scores.
+     *
+     * @param      post  The list of postings fulfilling a certain information need
+     * @param      k     The number of documents to return
+     *
+     * @return     A list of postings ranked according to the hub and authority scores.
+     */
+    PostingsList rank( PostingsList post, int k ) {
+        return post == null ? null : rank( new PostingsList[] { post }, k );
+    }
+
+
+    /**
+     * Rank the documents in the subgraph induced by the documents present
+     * in any of the postings lists `posts` (some may be null), and return
+     * the `k` best.
      *
-     * @param      map    A hash map to sorted
+     * @param      posts  The lists of postings fulfilling a certain information need
+     * @param      k      The number of documents to return
      *
-     * @return     A hash map sorted by values
+     * @return     A list of postings ranked according to the hub and authority scores.
      */
-    private HashMap<Integer,Double> sortHashMapByValue(HashMap<Integer,Double> map) {
-        if (map == null) {
+    synchronized PostingsList rank( PostingsList[] posts, int k ) {
+        if ( graph == null ) {
             return null;
-        } else {
-            List<Map.Entry<Integer,Double> > list = new ArrayList<Map.Entry<Integer,Double> >(map.entrySet());
-      
-            Collections.sort(list, new Comparator<Map.Entry<Integer,Double>>() {
-                public int compare(Map.Entry<Integer,Double> o1, Map.Entry<Integer,Double> o2) { 
-                    return (o2.getValue()).compareTo(o1.getValue()); 
-                } 
-            }); 
-              
-            HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>(); 
-            for (Map.Entry<Integer,Double> el : list) { 
-                res.put(el.getKey(), el.getValue()); 
+        }
+        mapDocuments();
+        int size = 0;
+        for ( PostingsList post : posts ) {
+            size += post == null ? 0 : post.size();
+        }
+        int[] roots = new int[size];
+        int n = 0;
+        for ( PostingsList post : posts ) {
+            if ( post == null ) {
+                continue;
+            }
+            PostingsCursor c = post.cursor();
+            while ( c.next() ) {
+                int node = c.docID() < docToNode.length ? docToNode[c.docID()] : -1;
+                if ( node >= 0 ) {
+                    roots[n++] = node;
+                }
+            }
+        }
+        iterate( rootSet( roots, n ));
+
+        TopKHeap heap = new TopKHeap( k );
+        for ( int i = 0; i < nodes.length; i++ ) {
+            int docID = nodeToDoc[nodes[i]];
+            if ( docID >= 0 ) {
+                heap.add( docID, hubs[i] + authorities[i] );
             }
-            return res;
         }
-    } 
+        return heap.toPostingsList();
+    }
+
+
+    /**
+     * Sets the max number of pages linking to a root page that are added to
+     * the base set. The cached base sets are dropped.
+     *
+     * @param      limit  The max number of in-links of a page to follow
+     */
+    synchronized void setInLinkLimit( int limit ) {
+        inLinkLimit = limit;
+        cache.clear();
+    }
+
+
+    /**
+     * Returns the positions of the `k` highest scores in `scores`, highest
+     * first, without sorting all of them.
+     *
+     * @param      scores  The scores
+     * @param      k       A number of entries to return
+     *
+     * @return     The positions of the k highest scores
+     */
+    private static int[] top( double[] scores, int k ) {
+        TopKHeap heap = new TopKHeap( k );
+        for ( int i = 0; i < scores.length; i++ ) {
+            heap.add( i, scores[i] );
+        }
+        PostingsList best = heap.toPostingsList();
+        int[] top = new int[best.size()];
+        for ( int i = 0; i < top.length; i++ ) {
+            top[i] = best.docID( i );
+        }
+        return top;
+    }
 
 
     /**
-     * Write the first `k` entries of a hash map `map` to the file `fname`.
+     * Write the `k` highest scores of `scores` with the nodeIDs of their
+     * nodes to the file `fname`.
      *
-     * @param      map        A hash map
+     * @param      scores     Scores of the nodes in `nodes`
      * @param      fname      The filename
      * @param      k          A number of entries to write
      */
-    void writeToFile(HashMap<Integer,Double> map, String fname, int k) {
+    void writeToFile( double[] scores, String fname, int k ) {
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(fname));
+            BufferedWriter writer = new BufferedWriter( new FileWriter( fname ));
             
-            if (map != null) {
-                int i = 0;
-                for (Map.Entry<Integer,Double> e : map.entrySet()) {
-                    i++;
-                    writer.write(e.getKey() + ": " + String.format("%.5g%n", e.getValue()));
-                    if (i >= k) break;
+            if ( scores != null ) {
+                for ( int i : top( scores, k )) {
+                    writer.write( graph.ids[nodes[i]] + ": " + String.format( "%.5g%n", scores[i] ));
                 }
             }
             writer.close();
-        } catch (IOException e) {}
+        } catch ( IOException e ) {}
     }
 
 
@@ -193,11 +572,13 @@ public class HITSRanker {
      *  authorities_top_30.txt with documents containing top 30 authority scores
      */
     void rank() {
-        iterate(titleToId.keySet().toArray(new String[0]));
-        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(hubs);
-        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(authorities);
-        writeToFile(sortedHubs, "hubs_top_30.txt", 30);
-        writeToFile(sortedAuthorities, "authorities_top_30.txt", 30);
+        int[] all = new int[graph.n];
+        for ( int i = 0; i < all.length; i++ ) {
+            all[i] = i;
+        }
+        iterate( all );
+        writeToFile( hubs, "hubs_top_30.txt", 30 );
+        writeToFile( authorities, "authorities_top_30.txt", 30 );
     }
 
 
@@ -213,4 +594,4 @@ public class HITSRanker {
             hr.rank();
         }
     }
-} 
\ No newline at end of file
+}
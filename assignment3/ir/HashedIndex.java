@@ -8,64 +8,199 @@
 package ir;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Implements an inverted index as a Hashtable from words to PostingsLists.
+ * Implements an inverted index as a table from term IDs to PostingsLists.
+ * The term IDs are given by a TermDictionary, which partial indexes share
+ * with the index they are merged into.
  */
 public class HashedIndex implements Index {
 
-    /** The index as a hashtable. */
-    private HashMap<String, PostingsList> index = new HashMap<String, PostingsList>();
+    /*
+     * Rough estimates of the heap space used by the index, used to decide
+     * when a partial index has to be merged (see Indexer).
+     */
+    static final int TERM_COST = 128;
+    static final int ENTRY_COST = 12;
+    static final int OFFSET_COST = 6;
+
+    /** The terms of the index. */
+    private final TermDictionary dictionary;
+
+    /** The postings lists, by term ID; null for terms not in this index. */
+    private PostingsList[] index = new PostingsList[1024];
+
+    /** The term IDs of the terms in this index, in the order they were added. */
+    private int[] termIDs = new int[1024];
+
+    /** Number of terms in this index. */
+    private int size = 0;
+
+    /** Estimated number of bytes used by the index. */
+    long memoryUsed = 0L;
+
+    /** The names and lengths of the documents. */
+    private DocumentTable documents = new DocumentTable();
+
+    /** The norms of the documents, or null before cleanup. */
+    private DocumentNorms norms;
+
+    /** Creates an empty index with a dictionary of its own. */
+    public HashedIndex() {
+        this(new TermDictionary());
+    }
+
+    /** Creates an empty index of terms from <code>dictionary</code>. */
+    public HashedIndex(TermDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
 
     /**
-     * Inserts this token in the hashtable.
+     * Inserts this token in the index.
      */
     public void insert(String token, int docID, int offset) {
-        if (index.containsKey(token)) {
-            PostingsList postingList = index.get(token);
-            PostingsEntry postingsEntry = postingList.searchEntry(docID);
+        insert(dictionary.add(token), docID, offset);
+    }
 
-            if (postingsEntry == null) {
-                PostingsEntry newEntry = new PostingsEntry(docID);
-                newEntry.addOffset(offset);
-                postingList.addPostingEntry(newEntry);
+    /**
+     * Inserts an occurrence of the term with ID <code>termID</code>.
+     */
+    public void insert(int termID, int docID, int offset) {
+        PostingsList postingList = termID < index.length ? index[termID] : null;
+        if (postingList == null) {
+            postingList = new PostingsList();
+            add(termID, postingList);
+            memoryUsed += TERM_COST;
+        }
+        // Tokens are inserted in docID order, so only the last posting
+        // can belong to this document.
+        int size = postingList.size();
+        postingList.addPosition(docID, offset);
+        if (postingList.size() > size) {
+            memoryUsed += ENTRY_COST;
+        }
+        memoryUsed += OFFSET_COST;
+    }
 
-            } else {
+    /** Adds the postings list of a term that is not in this index yet. */
+    private void add(int termID, PostingsList postingList) {
+        if (termID >= index.length) {
+            index = Arrays.copyOf(index, Math.max(termID + 1, 2 * index.length));
+        }
+        if (size == termIDs.length) {
+            termIDs = Arrays.copyOf(termIDs, 2 * size);
+        }
+        index[termID] = postingList;
+        termIDs[size++] = termID;
+    }
 
-                postingsEntry.addOffset(offset);
+    /**
+     * Merges the partial indexes into this index. The postings lists of
+     * a term are merged by docID, all partials at once. The partials must
+     * share the dictionary of this index.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void merge(List<HashedIndex> partials) {
+        ArrayList<PostingsList>[] lists = new ArrayList[dictionary.size()];
+        ArrayList<Integer> merged = new ArrayList<Integer>();
+        for (HashedIndex partial : partials) {
+            for (int i = 0; i < partial.size; i++) {
+                int termID = partial.termIDs[i];
+                ArrayList<PostingsList> l = lists[termID];
+                if (l == null) {
+                    l = new ArrayList<PostingsList>();
+                    PostingsList own = getPostings(termID);
+                    if (own != null) {
+                        l.add(own);
+                    }
+                    lists[termID] = l;
+                    merged.add(termID);
+                }
+                l.add(partial.index[termID]);
             }
+            memoryUsed += partial.memoryUsed;
         }
-        if (!index.containsKey(token)) {
-            PostingsEntry entry = new PostingsEntry(docID);
-            PostingsList postingList = new PostingsList();
-            postingList.addPostingEntry(entry);
-            entry.addOffset(offset);
-            index.put(token, postingList);
+        for (int termID : merged) {
+            PostingsList pl = PostingsList.merge(lists[termID]);
+            if (getPostings(termID) == null) {
+                add(termID, pl);
+            } else {
+                index[termID] = pl;
+            }
         }
     }
 
+    /**
+     * A HashedIndex is kept in main memory anyway, so the partial indexes
+     * are only merged when indexing is done.
+     */
+    public long memoryBudget() {
+        return Long.MAX_VALUE;
+    }
+
+    public TermDictionary terms() {
+        return dictionary;
+    }
+
+    /** Number of terms in this index. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the term IDs of the terms in this index. */
+    int[] termIDs() {
+        return Arrays.copyOf(termIDs, size);
+    }
+
     /**
      * Returns the postings for a specific term, or null
      * if the term is not in the index.
      */
     public PostingsList getPostings(String token) {
-        //
-        // REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
-        PostingsList postingList = null;
-        if (index.containsKey(token)) {
-            postingList = index.get(token);
-        }
-        return postingList;
+        int termID = dictionary.id(token);
+        return termID < 0 ? null : getPostings(termID);
+    }
+
+    /**
+     * Returns the postings of the term with ID <code>termID</code>, or null
+     * if the term is not in this index.
+     */
+    PostingsList getPostings(int termID) {
+        return termID < index.length ? index[termID] : null;
+    }
 
+    public DocumentTable documents() {
+        return documents;
     }
 
     /**
-     * No need for cleanup in a HashedIndex.
+     * Computes the idf of every postings list and the norms of the
+     * documents, now that all documents are indexed, and then the score
+     * bounds of every list.
      */
     public void cleanup() {
+        int N = documents.size();
+        norms = new DocumentNorms(documents);
+        for (int i = 0; i < size; i++) {
+            PostingsList pl = index[termIDs[i]];
+            pl.setIdf(Math.log((double) N / pl.size()));
+            norms.add(pl, pl.idf());
+        }
+        norms.finish();
+        double[] euclidean = norms.lengths(NormalizationType.EUCLIDEAN);
+        for (int i = 0; i < size; i++) {
+            PostingsList pl = index[termIDs[i]];
+            pl.setBounds(ScoreBounds.of(pl, documents, euclidean));
+        }
+    }
+
+    /** Returns the norms of the documents, computing them if needed. */
+    public DocumentNorms norms() {
+        if (norms == null) {
+            cleanup();
+        }
+        return norms;
     }
 }
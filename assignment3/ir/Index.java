@@ -7,7 +7,7 @@
 
 package ir;
 
-import java.util.HashMap;
+import java.util.List;
 
 /**
  * Defines some common data structures and methods that all types of
@@ -15,15 +15,39 @@ import java.util.HashMap;
  */
 public interface Index {
 
-    /** Mapping from document identifiers to document names. */
-    public HashMap<Integer, String> docNames = new HashMap<Integer, String>();
+    /**
+     * Returns the names and lengths of the documents of this index.
+     * Documents are registered concurrently by the indexing threads.
+     */
+    public DocumentTable documents();
 
-    /** Mapping from document identifier to document length. */
-    public HashMap<Integer, Integer> docLengths = new HashMap<Integer, Integer>();
+    /**
+     * Returns the terms of this index, with the term IDs that the k-gram
+     * index and the partial indexes use.
+     */
+    public TermDictionary terms();
 
-    /** Inserts a token into the index. */
+    /** Inserts a token into the index. Not safe to call from several threads. */
     public void insert(String token, int docID, int offset);
 
+    /**
+     * Merges partial indexes, each built by one indexing thread, into this
+     * index. The partial indexes contain disjoint sets of documents.
+     */
+    public void merge(List<HashedIndex> partials);
+
+    /**
+     * Number of bytes of heap the partial indexes may use together before
+     * they have to be merged into this index.
+     */
+    public long memoryBudget();
+
+    /**
+     * Returns the lengths of the documents used to normalize scores. They
+     * are computed when the index is committed by <code>cleanup</code>.
+     */
+    public DocumentNorms norms();
+
     /** Returns the postings for a given term. */
     public PostingsList getPostings(String token);
 
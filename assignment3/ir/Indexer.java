@@ -9,10 +9,17 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.nio.charset.*;
 
 /**
  * Processes a directory structure and indexes all PDF and text files.
+ *
+ * Indexing is done by a pipeline in three stages: the calling thread walks
+ * the directories and assigns docIDs, a pool of worker threads tokenizes the
+ * files into partial indexes (one per thread), and the partial indexes are
+ * merged into the index.
  */
 public class Indexer {
 
@@ -23,11 +30,100 @@ public class Indexer {
     KGramIndex kgIndex;
 
     /** The next docID to be generated. */
-    private int lastDocID = 0;
+    private AtomicInteger lastDocID = new AtomicInteger(0);
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
+    /** Number of threads tokenizing files. */
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Marks the end of the queue of files to index. */
+    private static final Document END = new Document(null, -1);
+
+    /** A file waiting to be indexed, with its docID. */
+    private static class Document {
+        final File file;
+        final int docID;
+
+        Document(File file, int docID) {
+            this.file = file;
+            this.docID = docID;
+        }
+    }
+
+    /**
+     * Inserts the tokens of a document into a partial index. Every thread
+     * keeps the term IDs of the terms it has seen in a hash table of its
+     * own, looked up by the characters of the token, so that a token costs
+     * a single hash; the shared dictionary is only locked for the first
+     * occurrence of a term in the thread.
+     */
+    private static class DocumentSink implements TokenSink {
+        final TermDictionary dictionary;
+        HashedIndex partial;
+        int docID;
+        int offset;
+
+        /** The terms seen by this thread and their IDs, by hash of their characters. */
+        private String[] terms = new String[1024];
+        private int[] termIDs = new int[1024];
+        private int size = 0;
+
+        DocumentSink(HashedIndex partial) {
+            this.partial = partial;
+            this.dictionary = partial.terms();
+        }
+
+        /** Starts a new partial index. */
+        void setPartial(HashedIndex partial) {
+            this.partial = partial;
+        }
+
+        public void token(char[] buf, int start, int length) {
+            partial.insert(termID(buf, start, length), docID, offset++);
+        }
+
+        /** Returns the term ID of the term with the characters of the token. */
+        private int termID(char[] buf, int start, int length) {
+            int hash = TermDictionary.hashCode(buf, start, length);
+            int mask = terms.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            for (String term = terms[slot]; term != null; term = terms[slot]) {
+                if (term.hashCode() == hash && TermDictionary.equals(term, buf, start, length)) {
+                    return termIDs[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            int termID = dictionary.add(buf, start, length);
+            terms[slot] = dictionary.term(termID);
+            termIDs[slot] = termID;
+            if (++size > terms.length / 2) {
+                grow();
+            }
+            return termID;
+        }
+
+        private void grow() {
+            String[] old = terms;
+            int[] oldIDs = termIDs;
+            terms = new String[2 * old.length];
+            termIDs = new int[2 * old.length];
+            int mask = terms.length - 1;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] != null) {
+                    int hash = old[i].hashCode();
+                    int slot = (hash ^ (hash >>> 16)) & mask;
+                    while (terms[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    terms[slot] = old[i];
+                    termIDs[slot] = oldIDs[i];
+                }
+            }
+        }
+    }
+
     /* ----------------------------------------------- */
 
     /** Constructor */
@@ -39,7 +135,7 @@ public class Indexer {
 
     /** Generates a new document identifier as an integer. */
     private int generateDocID() {
-        return lastDocID++;
+        return lastDocID.getAndIncrement();
     }
 
     /**
@@ -47,51 +143,127 @@ public class Indexer {
      * all its files and subdirectories are recursively processed.
      */
     public void processFiles(File f, boolean is_indexing) {
+        if (!is_indexing) {
+            return;
+        }
+        BlockingQueue<Document> queue = new ArrayBlockingQueue<Document>(4 * threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<HashedIndex>> workers = new ArrayList<Future<HashedIndex>>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(pool.submit(() -> indexDocuments(queue)));
+        }
+        try {
+            walk(f, queue, workers);
+            for (int i = 0; i < threads; i++) {
+                put(queue, END, workers);
+            }
+            ArrayList<HashedIndex> partials = new ArrayList<HashedIndex>();
+            for (Future<HashedIndex> worker : workers) {
+                partials.add(worker.get());
+            }
+            mergePartials(partials);
+            if (kgIndex != null) {
+                kgIndex.insertNewTerms();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Walks the directory structure under <code>f</code> and puts every
+     * readable file on the queue.
+     */
+    private void walk(File f, BlockingQueue<Document> queue, List<Future<HashedIndex>> workers)
+            throws InterruptedException, ExecutionException {
         // do not try to index fs that cannot be read
-        if (is_indexing) {
-            if (f.canRead()) {
-                if (f.isDirectory()) {
-                    String[] fs = f.list();
-                    // an IO error could occur
-                    if (fs != null) {
-                        for (int i = 0; i < fs.length; i++) {
-                            processFiles(new File(f, fs[i]), is_indexing);
-                        }
-                    }
-                } else {
-                    // First register the document and get a docID
-                    int docID = generateDocID();
-                    if (docID % 1000 == 0)
-                        System.err.println("Indexed " + docID + " files");
-                    try {
-                        Reader reader = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8);
-                        Tokenizer tok = new Tokenizer(reader, true, false, true, patterns_file);
-                        int offset = 0;
-
-                        while (tok.hasMoreTokens()) {
-                            String token = tok.nextToken();
-
-                            insertIntoIndex(docID, token, offset++);
-                        }
-                        index.docNames.put(docID, f.getPath());
-                        index.docLengths.put(docID, offset);
-                        reader.close();
-                    } catch (IOException e) {
-                        System.err.println("Warning: IOException during indexing.");
+        if (f.canRead()) {
+            if (f.isDirectory()) {
+                String[] fs = f.list();
+                // an IO error could occur
+                if (fs != null) {
+                    for (int i = 0; i < fs.length; i++) {
+                        walk(new File(f, fs[i]), queue, workers);
                     }
                 }
+            } else {
+                // First register the document and get a docID
+                put(queue, new Document(f, generateDocID()), workers);
             }
         }
     }
 
-    /* ----------------------------------------------- */
+    /**
+     * Puts a document on the queue, waiting while it is full. Since the
+     * workers only stop at the end of the queue, a worker that is done
+     * while the queue is full has failed, and nothing may ever take from
+     * the queue again; its exception is thrown instead of waiting.
+     */
+    private void put(BlockingQueue<Document> queue, Document doc, List<Future<HashedIndex>> workers)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(doc, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<HashedIndex> worker : workers) {
+                if (worker.isDone()) {
+                    worker.get();
+                    throw new ExecutionException(new IllegalStateException("An indexing thread stopped early"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes files from the queue and indexes them into a partial index
+     * until the end of the queue is reached. The partial index is merged
+     * into the index whenever it grows beyond its share of the memory
+     * budget.
+     *
+     * Every thread reuses one tokenizer, which hands the tokens straight
+     * to the partial index (see DocumentSink).
+     *
+     * @return The partial index with the documents that are not merged yet.
+     */
+    private HashedIndex indexDocuments(BlockingQueue<Document> queue) throws InterruptedException {
+        HashedIndex partial = new HashedIndex(index.terms());
+        DocumentSink sink = new DocumentSink(partial);
+        Tokenizer tok = null;
+        long budget = index.memoryBudget() / threads;
+        for (Document doc = queue.take(); doc != END; doc = queue.take()) {
+            if (doc.docID % 1000 == 0)
+                System.err.println("Indexed " + doc.docID + " files");
+            try {
+                Reader reader = new InputStreamReader(new FileInputStream(doc.file), StandardCharsets.UTF_8);
+                if (tok == null) {
+                    tok = new Tokenizer(reader, true, false, true, patterns_file);
+                } else {
+                    tok.reset(reader);
+                }
+                sink.docID = doc.docID;
+                sink.offset = 0;
+                tok.tokenize(sink);
+                index.documents().add(doc.docID, doc.file.getPath(), sink.offset);
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("Warning: IOException during indexing.");
+            }
+            if (partial.memoryUsed > budget) {
+                mergePartials(Collections.singletonList(partial));
+                partial = new HashedIndex(index.terms());
+                sink.setPartial(partial);
+            }
+        }
+        return partial;
+    }
 
     /**
-     * Indexes one token.
+     * Merges partial indexes into the index. Their terms are added to the
+     * k-gram index when all files are indexed, so that they are added in
+     * term ID order.
      */
-    public void insertIntoIndex(int docID, String token, int offset) {
-        index.insert(token, docID, offset);
-        if (kgIndex != null)
-            kgIndex.insert(token);
+    private synchronized void mergePartials(List<HashedIndex> partials) {
+        index.merge(partials);
     }
 }
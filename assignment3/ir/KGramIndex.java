@@ -11,16 +11,38 @@ import java.io.*;
 import java.util.*;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * An index from k-grams to the terms that contain them. The terms and
+ * their IDs are those of the dictionary of the inverted index, and the
+ * terms are inserted in term ID order, so that every postings list is
+ * an append-only, sorted array of term IDs.
+ *
+ * A k-gram is packed into a long, 16 bits per char, so K can be at most
+ * 4. The k-grams get dense IDs from an open-addressing hash table of the
+ * packed k-grams.
+ */
 public class KGramIndex {
 
-    /** Mapping from term ids to actual term strings */
-    HashMap<Integer, String> id2term = new HashMap<Integer, String>();
+    /** The terms, with their term IDs */
+    TermDictionary terms;
+
+    /** The packed k-grams, by k-gram ID */
+    private long[] kgrams = new long[256];
+
+    /** The term IDs of the terms that contain each k-gram, by k-gram ID */
+    private int[][] postings = new int[256][];
 
-    /** Mapping from term strings to term ids */
-    HashMap<String, Integer> term2id = new HashMap<String, Integer>();
+    /** Number of term IDs in each postings array, by k-gram ID */
+    private int[] sizes = new int[256];
 
-    /** Index from k-grams to list of term ids that contain the k-gram */
-    HashMap<String, List<KGramPostingsEntry>> index = new HashMap<String, List<KGramPostingsEntry>>();
+    /** Number of k-grams */
+    private int size = 0;
+
+    /** Number of distinct k-grams of each term, by term ID */
+    private int[] counts = new int[1024];
+
+    /** Hash table of k-gram IDs; -1 marks an empty slot */
+    private int[] table = newTable(512);
 
     /** The ID of the last processed term */
     int lastTermID = -1;
@@ -29,16 +51,27 @@ public class KGramIndex {
     int K = 2;
 
     public KGramIndex(int k) {
+        this(k, new TermDictionary());
+    }
+
+    /** Creates a k-gram index of the terms of <code>terms</code>. */
+    public KGramIndex(int k, TermDictionary terms) {
         K = k;
+        this.terms = terms;
         if (k <= 0) {
             System.err.println("The K-gram index can't be constructed for a negative K value");
             System.exit(1);
         }
+        if (k > 4) {
+            System.err.println("The K-gram index can't be constructed for K > 4");
+            System.exit(1);
+        }
     }
 
-    /** Generate the ID for an unknown term */
-    private int generateTermID() {
-        return ++lastTermID;
+    private static int[] newTable(int n) {
+        int[] table = new int[n];
+        Arrays.fill(table, -1);
+        return table;
     }
 
     public int getK() {
@@ -46,98 +79,221 @@ public class KGramIndex {
     }
 
     /**
-     * Get intersection of two postings lists
+     * Get intersection of two postings lists. Each term ID of the shorter
+     * list is looked for in the longer one by galloping search, which
+     * costs O(m log(n/m)) for lists of lengths m and n. A null list is
+     * taken to be empty.
      */
-    public List<KGramPostingsEntry> intersect(List<KGramPostingsEntry> p1, List<KGramPostingsEntry> p2) {
-
-        List<KGramPostingsEntry> result = new ArrayList<>();
-        int index1 = 0, index2 = 0;
-
-        if (p1.isEmpty() || p2.isEmpty())
-            return result;
-
-        KGramPostingsEntry entry1 = p1.get(index1), entry2 = p2.get(index2);
-
-        while (true) {
-            int id1 = entry1.tokenID, id2 = entry2.tokenID;
-            if (id1 < id2) {
-                // Advance index1 if not at the end
-                if (index1 + 1 < p1.size())
-                    entry1 = p1.get(++index1);
-                else
-                    break;
-            } else if (id1 == id2) {
-                result.add(entry1);
-                // Advance both indexes if not at the end
-                if (index1 + 1 < p1.size() && index2 + 1 < p2.size()) {
-                    entry1 = p1.get(++index1);
-                    entry2 = p2.get(++index2);
-                } else
-                    break;
+    public int[] intersect(int[] p1, int[] p2) {
+        if (p1 == null || p2 == null) {
+            return new int[0];
+        }
+        if (p1.length > p2.length) {
+            int[] p = p1;
+            p1 = p2;
+            p2 = p;
+        }
+        int[] result = new int[p1.length];
+        int n = 0;
+        int lo = 0;
+        for (int id : p1) {
+            // Gallop to a range of p2 where id would be, then binary search it
+            int step = 1;
+            int hi = lo;
+            while (hi < p2.length && p2[hi] < id) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            if (hi >= p2.length) {
+                hi = p2.length - 1;
+            }
+            int found = Arrays.binarySearch(p2, lo, hi + 1, id);
+            if (found >= 0) {
+                result[n++] = id;
+                lo = found + 1;
             } else {
-                // Advance index2 if not at the end
-                if (index2 + 1 < p2.size())
-                    entry2 = p2.get(++index2);
-                else
-                    break;
+                lo = -found - 1;
+            }
+            if (lo >= p2.length) {
+                break;
             }
         }
-        return result;
-
+        return Arrays.copyOf(result, n);
     }
 
     /** Inserts all k-grams from a token into the index. */
     public void insert(String token) {
+        terms.add(token);
+        insertNewTerms();
+    }
 
-        //
-        // YOUR CODE HERE
-        //
-        if (getIDByTerm(token) != null) {
-            return;
+    /**
+     * Inserts the k-grams of the terms added to the dictionary since the
+     * last time, in term ID order.
+     */
+    public void insertNewTerms() {
+        int size = terms.size();
+        while (lastTermID + 1 < size) {
+            insert(++lastTermID);
         }
-        int newid = generateTermID();
-        term2id.put(token, newid);
-        id2term.put(newid, token);
-        int kgramNum = token.length() + 3 - getK();
-        KGramPostingsEntry a = new KGramPostingsEntry(newid);
+    }
 
-        String kgrams;
-        String newToken = "^" + token + "$";
+    /** Inserts all k-grams of the term with ID <code>termID</code>. */
+    private void insert(int termID) {
+        String token = terms.term(termID);
+        long mask = K == 4 ? -1L : (1L << (16 * K)) - 1;
+        long kgram = 0;
+        int count = 0;
+        // The k-grams of "^" + token + "$", rolled into a long
+        for (int i = 0; i < token.length() + 2; i++) {
+            char c = i == 0 ? '^' : i <= token.length() ? token.charAt(i - 1) : '$';
+            kgram = ((kgram << 16) | c) & mask;
+            if (i + 1 >= K && add(kgram, termID)) {
+                count++;
+            }
+        }
+        if (termID >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(termID + 1, 2 * counts.length));
+        }
+        counts[termID] = count;
+    }
 
-        for (int i = 0; i < kgramNum; i++) {
-            kgrams = newToken.substring(i, i + getK());
+    /**
+     * Adds a term ID to the postings of a packed k-gram.
+     *
+     * @return false if the term already was in the postings.
+     */
+    private boolean add(long kgram, int termID) {
+        int id = find(kgram);
+        if (id < 0) {
+            id = newKGram(kgram);
+        }
+        int n = sizes[id];
+        int[] list = postings[id];
+        // A k-gram may occur several times in the term; the term is
+        // always the last one in the list by then
+        if (n > 0 && list[n - 1] == termID) {
+            return false;
+        }
+        if (n == list.length) {
+            list = postings[id] = Arrays.copyOf(list, Math.max(4, 2 * n));
+        }
+        list[n] = termID;
+        sizes[id] = n + 1;
+        return true;
+    }
 
-            if (!index.containsKey(kgrams)) {
-                index.put(kgrams, new ArrayList<KGramPostingsEntry>());
+    /** Returns the slot where the search for a packed k-gram starts. */
+    private static int slot(long kgram, int mask) {
+        long h = kgram * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /** Returns the ID of a packed k-gram, or -1 if it is not in the index. */
+    private int find(long kgram) {
+        int mask = table.length - 1;
+        for (int slot = slot(kgram, mask); table[slot] >= 0; slot = (slot + 1) & mask) {
+            if (kgrams[table[slot]] == kgram) {
+                return table[slot];
             }
-            if (!index.get(kgrams).contains(a)) {
-                index.get(kgrams).add(a);
+        }
+        return -1;
+    }
+
+    /** Gives a new k-gram an ID and an empty postings array. */
+    private int newKGram(long kgram) {
+        if (size == kgrams.length) {
+            kgrams = Arrays.copyOf(kgrams, 2 * size);
+            postings = Arrays.copyOf(postings, 2 * size);
+            sizes = Arrays.copyOf(sizes, 2 * size);
+        }
+        int id = size++;
+        kgrams[id] = kgram;
+        postings[id] = new int[4];
+        if (size > table.length / 2) {
+            table = newTable(2 * table.length);
+            for (int i = 0; i < size; i++) {
+                insertSlot(i);
             }
+        } else {
+            insertSlot(id);
+        }
+        return id;
+    }
 
+    private void insertSlot(int id) {
+        int mask = table.length - 1;
+        int slot = slot(kgrams[id], mask);
+        while (table[slot] >= 0) {
+            slot = (slot + 1) & mask;
         }
+        table[slot] = id;
+    }
 
+    /** Returns a k-gram packed into a long, or -1 if it is not K chars long. */
+    private long pack(String kgram) {
+        if (kgram.length() != K) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < K; i++) {
+            packed = (packed << 16) | kgram.charAt(i);
+        }
+        return packed;
     }
 
-    /** Get postings for the given k-gram */
-    public List<KGramPostingsEntry> getPostings(String kgram) {
-        //
-        // YOUR CODE HERE
-        //
-        if (index.containsKey(kgram)) {
-            return index.get(kgram);
-        } else {
+    /** Number of k-grams in the index. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the distinct k-grams of a term, with the start and end marks. */
+    public List<String> kgrams(String term) {
+        String marked = "^" + term + "$";
+        ArrayList<String> kgrams = new ArrayList<String>();
+        for (int i = 0; i + K <= marked.length(); i++) {
+            String kgram = marked.substring(i, i + K);
+            if (!kgrams.contains(kgram)) {
+                kgrams.add(kgram);
+            }
+        }
+        return kgrams;
+    }
+
+    /** Returns the number of distinct k-grams of the term with ID <code>termID</code>. */
+    public int kgramCount(int termID) {
+        return counts[termID];
+    }
+
+    /**
+     * Get postings for the given k-gram: the IDs of the terms that contain
+     * it, in increasing order, or null if no term does. The array must not
+     * be changed.
+     */
+    public int[] getPostings(String kgram) {
+        long packed = pack(kgram);
+        int id = packed == -1 ? -1 : find(packed);
+        if (id < 0) {
             return null;
         }
+        if (postings[id].length != sizes[id]) {
+            // Trimmed when first read; it is grown again if more terms
+            // are inserted
+            postings[id] = Arrays.copyOf(postings[id], sizes[id]);
+        }
+        return postings[id];
     }
 
     /** Get id of a term */
     public Integer getIDByTerm(String term) {
-        return term2id.get(term);
+        int id = terms.id(term);
+        return id < 0 || id > lastTermID ? null : id;
     }
 
     /** Get a term by the given id */
     public String getTermByID(Integer id) {
-        return id2term.get(id);
+        return terms.term(id);
     }
 
     private static HashMap<String, String> decodeArgs(String[] args) {
@@ -174,7 +330,7 @@ public class KGramIndex {
 
     public int searchK(String str) {
         String[] kgrams = str.split(" ");
-        List<KGramPostingsEntry> postings = null;
+        int[] postings = null;
         for (String kgram : kgrams) {
             if (kgram.length() != getK()) {
                 System.err.println(
@@ -189,7 +345,7 @@ public class KGramIndex {
                 postings = intersect(postings, getPostings(kgram));
             }
         }
-        return postings.size();
+        return postings.length;
     }
 
     public static void main(String[] arguments) throws FileNotFoundException, IOException {
@@ -207,7 +363,7 @@ public class KGramIndex {
         }
 
         String[] kgrams = args.get("kgram").split(" ");
-        List<KGramPostingsEntry> postings = null;
+        int[] postings = null;
         for (String kgram : kgrams) {
             if (kgram.length() != k) {
                 System.err.println(
@@ -224,14 +380,14 @@ public class KGramIndex {
         if (postings == null) {
             System.err.println("Found 0 posting(s)");
         } else {
-            int resNum = postings.size();
+            int resNum = postings.length;
             System.err.println("Found " + resNum + " posting(s)");
             if (resNum > 10) {
                 System.err.println("The first 10 of them are:");
                 resNum = 10;
             }
             for (int i = 0; i < resNum; i++) {
-                System.err.println(kgIndex.getTermByID(postings.get(i).tokenID));
+                System.err.println(kgIndex.getTermByID(postings[i]));
             }
         }
     }
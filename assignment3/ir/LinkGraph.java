@@ -0,0 +1,252 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A link graph read from a links file, where each line has the format
+ *   nodeID;outNodeID1,outNodeID2,...,outNodeIDK
+ *
+ * The graph is kept in compressed sparse row form: the links of node i
+ * are <code>outLinks[outStart[i]]</code> up to (not including)
+ * <code>outLinks[outStart[i + 1]]</code>, where nodes are numbered in the
+ * order they are first seen. The transposed graph (the links into every
+ * node) is kept the same way in <code>inStart</code> and
+ * <code>inLinks</code>, with the in-links of every node in node order.
+ */
+public class LinkGraph {
+
+    /** The number of nodes. */
+    int n;
+
+    /** The nodeID of every node. */
+    String[] ids;
+
+    /** The links out of every node. */
+    int[] outStart;
+    int[] outLinks;
+
+    /** The links into every node. */
+    int[] inStart;
+    int[] inLinks;
+
+    /** Reads the link graph from <code>linksFilename</code>. */
+    public LinkGraph(String linksFilename) throws IOException {
+        readLinks(linksFilename);
+    }
+
+    /**
+     * Reads the links file into the CSR arrays. A node that is only a
+     * target of links is a dangling node. Repeated links count once.
+     */
+    private void readLinks(String linksFilename) throws IOException {
+        NodeTable nodes = new NodeTable();
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int links = 0;
+
+        try (BufferedReader in = new BufferedReader(new FileReader(linksFilename), 1 << 16)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int semi = line.indexOf(';');
+                if (semi < 0) {
+                    continue;
+                }
+                int source = nodes.node(line, 0, semi);
+                int start = semi + 1;
+                while (start < line.length()) {
+                    int comma = line.indexOf(',', start);
+                    if (comma < 0) {
+                        comma = line.length();
+                    }
+                    int target = nodes.node(line, start, comma);
+                    if (target >= 0) {
+                        if (links == from.length) {
+                            from = Arrays.copyOf(from, 2 * links);
+                            to = Arrays.copyOf(to, 2 * links);
+                        }
+                        from[links] = source;
+                        to[links] = target;
+                        links++;
+                    }
+                    start = comma + 1;
+                }
+            }
+        }
+
+        n = nodes.names.size();
+        ids = nodes.names.toArray(new String[n]);
+
+        // Counting sort of the links by source
+        outStart = new int[n + 1];
+        for (int i = 0; i < links; i++) {
+            outStart[from[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+        }
+        int[] fill = Arrays.copyOf(outStart, n);
+        outLinks = new int[links];
+        for (int i = 0; i < links; i++) {
+            outLinks[fill[from[i]]++] = to[i];
+        }
+        from = null;
+        to = null;
+
+        // Remove repeated links
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int start = outStart[i], end = outStart[i + 1];
+            Arrays.sort(outLinks, start, end);
+            outStart[i] = m;
+            for (int k = start; k < end; k++) {
+                if (k == start || outLinks[k] != outLinks[k - 1]) {
+                    outLinks[m++] = outLinks[k];
+                }
+            }
+        }
+        outStart[n] = m;
+        outLinks = Arrays.copyOf(outLinks, m);
+
+        // The transposed graph, with the in-links of every node in node order
+        inStart = new int[n + 1];
+        for (int k = 0; k < m; k++) {
+            inStart[outLinks[k] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            inStart[i + 1] += inStart[i];
+        }
+        fill = Arrays.copyOf(inStart, n);
+        inLinks = new int[m];
+        for (int i = 0; i < n; i++) {
+            for (int k = outStart[i]; k < outStart[i + 1]; k++) {
+                inLinks[fill[outLinks[k]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Numbers the nodes in the order they are first seen. NodeIDs are
+     * usually numbers, which are looked up in an open addressing table
+     * without making a string of them; other nodeIDs go in a hash map.
+     */
+    private static class NodeTable {
+        final ArrayList<String> names = new ArrayList<String>();
+        final HashMap<String, Integer> other = new HashMap<String, Integer>();
+        int[] keys = new int[1 << 16];
+        int[] values = new int[1 << 16];
+        int size = 0;
+
+        /**
+         * Returns the number of the node whose nodeID is
+         * <code>line[from, to)</code>, numbering it if it is new, or -1
+         * if the nodeID is empty.
+         */
+        int node(String line, int from, int to) {
+            while (from < to && line.charAt(from) == ' ') {
+                from++;
+            }
+            while (to > from && line.charAt(to - 1) == ' ') {
+                to--;
+            }
+            if (from == to) {
+                return -1;
+            }
+            // A number without leading zeros has only one string form
+            int key = 0;
+            boolean number = to - from <= 9 && (line.charAt(from) != '0' || to - from == 1);
+            for (int i = from; number && i < to; i++) {
+                char c = line.charAt(i);
+                number = c >= '0' && c <= '9';
+                key = 10 * key + c - '0';
+            }
+            if (!number) {
+                String name = line.substring(from, to);
+                Integer node = other.get(name);
+                if (node == null) {
+                    node = names.size();
+                    other.put(name, node);
+                    names.add(name);
+                }
+                return node;
+            }
+            // The keys are stored plus one, so that 0 marks an empty slot
+            int mask = keys.length - 1;
+            int slot = (key * 0x9E3779B1) & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key + 1) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key + 1;
+            values[slot] = names.size();
+            names.add(Integer.toString(key));
+            if (++size > keys.length / 2) {
+                grow();
+            }
+            return names.size() - 1;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldValues = values;
+            keys = new int[2 * oldKeys.length];
+            values = new int[2 * oldKeys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = ((oldKeys[i] - 1) * 0x9E3779B1) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the page titles of <code>titlesFilename</code>, with lines
+     * <code>nodeID;pageTitle</code>.
+     *
+     * @return The title of every node, or null for nodes without one.
+     */
+    String[] readTitles(String titlesFilename) throws IOException {
+        HashMap<String, Integer> nodes = new HashMap<String, Integer>(2 * n);
+        for (int i = 0; i < n; i++) {
+            nodes.put(ids[i], i);
+        }
+        String[] titles = new String[n];
+        try (BufferedReader in = new BufferedReader(new FileReader(titlesFilename))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int semi = line.indexOf(';');
+                if (semi >= 0) {
+                    Integer node = nodes.get(line.substring(0, semi).trim());
+                    if (node != null) {
+                        titles[node] = line.substring(semi + 1);
+                    }
+                }
+            }
+        }
+        return titles;
+    }
+
+    /** Number of links in the graph. */
+    int links() {
+        return outLinks.length;
+    }
+
+    /** Number of links out of a node. */
+    int outDegree(int node) {
+        return outStart[node + 1] - outStart[node];
+    }
+}
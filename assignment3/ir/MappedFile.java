@@ -0,0 +1,92 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only memory mapping of a file.
+ *
+ * A single MappedByteBuffer can address at most 2 GB, so the file is
+ * mapped as a sequence of segments of <code>segmentSize</code> bytes.
+ * Records are never allowed to cross a segment boundary; the writer of
+ * the file is responsible for padding (see <code>PersistentHashedIndex</code>).
+ */
+public class MappedFile {
+
+    /** The default size of a segment (1 GB). */
+    public static final long SEGMENT_SIZE = 1L << 30;
+
+    /** The mapped segments. */
+    private MappedByteBuffer[] segments;
+
+    /** The size of every segment but the last. */
+    private long segmentSize;
+
+    /** The size of the file in bytes. */
+    private long size;
+
+    /**
+     * Maps <code>file</code> into memory.
+     *
+     * @param file        The file to map.
+     * @param segmentSize The size of each mapped segment, at most 2 GB.
+     */
+    public MappedFile(RandomAccessFile file, long segmentSize) throws IOException {
+        this.segmentSize = segmentSize;
+        FileChannel channel = file.getChannel();
+        size = channel.size();
+        int n = (int) ((size + segmentSize - 1) / segmentSize);
+        segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * segmentSize;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+        }
+    }
+
+    /** The size of the mapped file in bytes. */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a view of <code>length</code> bytes starting at <code>ptr</code>.
+     * No data is copied.
+     */
+    public ByteBuffer slice(long ptr, int length) {
+        ByteBuffer buf = segments[(int) (ptr / segmentSize)].duplicate();
+        int start = (int) (ptr % segmentSize);
+        buf.position(start);
+        buf.limit(start + length);
+        return buf.slice();
+    }
+
+    /** Reads the int at position <code>ptr</code>. */
+    public int getInt(long ptr) {
+        return segments[(int) (ptr / segmentSize)].getInt((int) (ptr % segmentSize));
+    }
+
+    /** Reads the long at position <code>ptr</code>. */
+    public long getLong(long ptr) {
+        return segments[(int) (ptr / segmentSize)].getLong((int) (ptr % segmentSize));
+    }
+
+    /**
+     * Returns the number of bytes of padding needed before a record of
+     * <code>length</code> bytes can be written at <code>ptr</code> without
+     * crossing a segment boundary.
+     */
+    public static int padding(long ptr, int length, long segmentSize) {
+        long offset = ptr % segmentSize;
+        if (offset + length > segmentSize && length <= segmentSize) {
+            return (int) (segmentSize - offset);
+        }
+        return 0;
+    }
+}
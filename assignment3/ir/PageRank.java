@@ -0,0 +1,498 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+/**
+ * Computes the PageRank of every page of a link graph.
+ *
+ * Each line in the links file has the format
+ *   nodeID;outNodeID1,outNodeID2,...,outNodeIDK
+ * and each line in the (optional) titles file the format
+ *   nodeID;pageTitle
+ *
+ * The graph is kept in compressed sparse row form (see LinkGraph), both
+ * the links out of and into every node, so that power iteration computes
+ * every new score from the old scores of the node's in-links, and the
+ * nodes can be split between threads without any synchronization.
+ *
+ * Besides power iteration, the scores can be approximated by Monte Carlo
+ * random walks: either by where walks from random nodes end ("end-point
+ * with random start"), or by all the nodes visited by a number of walks
+ * from every node, which stop at dangling nodes ("complete path stopping
+ * at dangling nodes").
+ *
+ * When a few pages have changed, the scores of an earlier run can be
+ * given with -prev: power iteration then starts from them instead of from
+ * the uniform vector, and only has to reconverge, which takes far fewer
+ * iterations. With -compare a cold run is done as well, to report what
+ * the earlier scores saved.
+ *
+ * The scores are written as a text file with lines <code>title=score</code>,
+ * which the engine reads with the -r option, and can also be stored with
+ * the persistent index in ./index, where the engine reads them with -ni.
+ *
+ * Usage: java ir.PageRank links_file [-titles titles_file] [-o rank_file]
+ *            [-m power|mc1|mc4] [-w walks_per_node] [-e epsilon] [-t threads] [-ni]
+ *            [-prev old_rank_file [-compare]]
+ */
+public class PageRank {
+
+    /** Probability that the surfer gets bored and jumps to a random page. */
+    final static double BORED = 0.15;
+
+    /**
+     * Convergence criterion: power iteration stops when the scores change
+     * less than this in total (L1 norm) from one iteration to the next.
+     */
+    final static double EPSILON = 1e-8;
+
+    /** Max number of iterations of power iteration. */
+    final static int MAX_NUMBER_OF_STEPS = 1000;
+
+    /** The link graph. */
+    LinkGraph graph;
+
+    /** The number of nodes. */
+    int n;
+
+    /** The nodeID (or title, once read) of every node. */
+    String[] names;
+
+    /** The links out of and into every node, from the graph. */
+    int[] outStart;
+    int[] outLinks;
+    int[] inStart;
+    int[] inLinks;
+
+    /** Number of threads. */
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of iterations of the last power iteration. */
+    int iterations;
+
+    /* --------------------------------------------- */
+
+    /** Reads the link graph from <code>linksFilename</code>. */
+    public PageRank(String linksFilename) throws IOException {
+        graph = new LinkGraph(linksFilename);
+        n = graph.n;
+        names = graph.ids.clone();
+        outStart = graph.outStart;
+        outLinks = graph.outLinks;
+        inStart = graph.inStart;
+        inLinks = graph.inLinks;
+    }
+
+    /** Replaces the nodeIDs by the page titles of <code>titlesFilename</code>. */
+    void readTitles(String titlesFilename) throws IOException {
+        String[] titles = graph.readTitles(titlesFilename);
+        for (int i = 0; i < n; i++) {
+            if (titles[i] != null) {
+                names[i] = titles[i];
+            }
+        }
+    }
+
+    /* --------------------------------------------- */
+
+    /** A computation over the nodes in [from, to) returning a partial sum. */
+    private interface RangeTask {
+        double run(int from, int to);
+    }
+
+    /**
+     * Runs <code>task</code> over all nodes, split into ranges done by the
+     * threads of <code>pool</code>, and returns the sum of the results. The
+     * ranges and the order of the sum only depend on the number of threads.
+     */
+    private double sum(ExecutorService pool, RangeTask task) throws InterruptedException {
+        if (pool == null) {
+            return task.run(0, n);
+        }
+        // More ranges than threads, since the nodes have different degrees
+        int ranges = 4 * threads;
+        List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(ranges);
+        for (int r = 0; r < ranges; r++) {
+            int from = (int) ((long) n * r / ranges), to = (int) ((long) n * (r + 1) / ranges);
+            tasks.add(() -> task.run(from, to));
+        }
+        double sum = 0;
+        try {
+            for (Future<Double> part : pool.invokeAll(tasks)) {
+                sum += part.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return sum;
+    }
+
+    /** Returns a pool of the threads, or null if one thread is enough. */
+    private ExecutorService pool() {
+        return threads > 1 && n >= 10000 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    /**
+     * Computes the PageRank of every node by power iteration, starting
+     * with the same score for every node.
+     */
+    public double[] powerIteration(double epsilon, int maxIterations) throws InterruptedException {
+        double[] x = new double[n];
+        Arrays.fill(x, 1.0 / n);
+        return powerIteration(x, epsilon, maxIterations);
+    }
+
+    /**
+     * Computes the PageRank of every node by power iteration, starting
+     * with the scores <code>x</code>, which must sum to 1. The iteration
+     * stops when the scores change less than <code>epsilon</code> in L1
+     * norm; <code>iterations</code> is set to the number of iterations.
+     *
+     * @return The scores, which sum to 1.
+     */
+    public double[] powerIteration(double[] x, double epsilon, int maxIterations) throws InterruptedException {
+        double[] next = new double[n];
+        // The score each node gives every node it links to
+        double[] share = new double[n];
+        ExecutorService pool = pool();
+        try {
+            iterations = 0;
+            while (iterations < maxIterations) {
+                final double[] current = x, updated = next;
+                // The score of the dangling nodes goes to all nodes
+                double dangling = sum(pool, (from, to) -> {
+                    double d = 0;
+                    for (int i = from; i < to; i++) {
+                        int degree = outStart[i + 1] - outStart[i];
+                        if (degree == 0) {
+                            share[i] = 0;
+                            d += current[i];
+                        } else {
+                            share[i] = current[i] / degree;
+                        }
+                    }
+                    return d;
+                });
+                double base = (BORED + (1 - BORED) * dangling) / n;
+                double change = sum(pool, (from, to) -> {
+                    double c = 0;
+                    for (int j = from; j < to; j++) {
+                        double s = 0;
+                        for (int k = inStart[j]; k < inStart[j + 1]; k++) {
+                            s += share[inLinks[k]];
+                        }
+                        updated[j] = base + (1 - BORED) * s;
+                        c += Math.abs(updated[j] - current[j]);
+                    }
+                    return c;
+                });
+                next = x;
+                x = updated;
+                iterations++;
+                if (change < epsilon) {
+                    break;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Approximates the PageRank by where random walks end (end-point with
+     * random start). <code>walks</code> walks start at random nodes; every
+     * step the surfer gets bored with probability BORED and the walk ends,
+     * otherwise the walk follows a random link, or jumps to a random node
+     * from a dangling node. The score of a node is the fraction of walks
+     * that end in it.
+     */
+    public double[] monteCarloEndPoint(long walks, long seed) throws InterruptedException {
+        int parts = Math.max(1, threads);
+        long[][] ends = walk(parts, part -> {
+            SplittableRandom random = new SplittableRandom(seed + part);
+            long[] count = new long[n];
+            for (long w = walks * part / parts; w < walks * (part + 1) / parts; w++) {
+                int node = random.nextInt(n);
+                while (random.nextDouble() >= BORED) {
+                    int degree = outStart[node + 1] - outStart[node];
+                    node = degree == 0 ? random.nextInt(n) : outLinks[outStart[node] + random.nextInt(degree)];
+                }
+                count[node]++;
+            }
+            return count;
+        });
+        return normalize(ends);
+    }
+
+    /**
+     * Approximates the PageRank by all the nodes random walks visit
+     * (complete path stopping at dangling nodes). <code>walksPerNode</code>
+     * walks start at every node; every step the walk ends with probability
+     * BORED, or at a dangling node, and otherwise follows a random link.
+     * The score of a node is the fraction of all visits that are to it.
+     */
+    public double[] monteCarloCompletePath(int walksPerNode, long seed) throws InterruptedException {
+        int parts = Math.max(1, threads);
+        long[][] visits = walk(parts, part -> {
+            SplittableRandom random = new SplittableRandom(seed + part);
+            long[] count = new long[n];
+            for (int start = (int) ((long) n * part / parts); start < (long) n * (part + 1) / parts; start++) {
+                for (int w = 0; w < walksPerNode; w++) {
+                    int node = start;
+                    count[node]++;
+                    while (random.nextDouble() >= BORED) {
+                        int degree = outStart[node + 1] - outStart[node];
+                        if (degree == 0) {
+                            break;
+                        }
+                        node = outLinks[outStart[node] + random.nextInt(degree)];
+                        count[node]++;
+                    }
+                }
+            }
+            return count;
+        });
+        return normalize(visits);
+    }
+
+    /** A part of the random walks, counting visits to every node. */
+    private interface WalkTask {
+        long[] run(int part);
+    }
+
+    /** Runs the parts of the random walks in parallel. */
+    private long[][] walk(int parts, WalkTask task) throws InterruptedException {
+        long[][] counts = new long[parts][];
+        if (parts == 1) {
+            counts[0] = task.run(0);
+            return counts;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+            for (int p = 0; p < parts; p++) {
+                int part = p;
+                results.add(pool.submit(() -> task.run(part)));
+            }
+            for (int p = 0; p < parts; p++) {
+                counts[p] = results.get(p).get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    /** Adds up the counts of the parts and divides by the total count. */
+    private double[] normalize(long[][] counts) {
+        double[] x = new double[n];
+        long total = 0;
+        for (long[] count : counts) {
+            for (int i = 0; i < n; i++) {
+                x[i] += count[i];
+                total += count[i];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] /= total;
+        }
+        return x;
+    }
+
+    /**
+     * Returns start scores for power iteration from the scores of an
+     * earlier run, read from a file written by <code>writeScores</code>.
+     * Nodes that are new get the score of a page nobody links to, and the
+     * scores are scaled to sum to 1.
+     */
+    double[] readScores(String filename) throws IOException {
+        HashMap<String, Integer> nodes = null;
+        double[] x = new double[n];
+        Arrays.fill(x, BORED / n);
+        try (BufferedReader in = new BufferedReader(new FileReader(filename), 1 << 16)) {
+            String line;
+            for (int i = 0; (line = in.readLine()) != null; i++) {
+                int eq = line.lastIndexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                // The file is in node order unless the graph has changed there
+                int node = -1;
+                if (i < n && names[i].length() == eq && line.startsWith(names[i])) {
+                    node = i;
+                } else {
+                    if (nodes == null) {
+                        nodes = new HashMap<String, Integer>(2 * n);
+                        for (int j = 0; j < n; j++) {
+                            nodes.put(names[j], j);
+                        }
+                    }
+                    Integer found = nodes.get(line.substring(0, eq));
+                    node = found == null ? -1 : found;
+                }
+                if (node >= 0) {
+                    x[node] = Double.parseDouble(line.substring(eq + 1));
+                }
+            }
+        }
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += x[i];
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] /= sum;
+        }
+        return x;
+    }
+
+    /* --------------------------------------------- */
+
+    /** Writes the scores as lines <code>name=score</code>. */
+    void writeScores(double[] x, String filename) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            for (int i = 0; i < n; i++) {
+                out.write(names[i]);
+                out.write('=');
+                out.write(Double.toString(x[i]));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Stores the scores with the persistent index in ./index, by the docIDs
+     * of the documents whose file names are the names of the nodes.
+     */
+    void storeWithIndex(double[] x) throws IOException {
+        File dir = new File(PersistentHashedIndex.INDEXDIR);
+        DocumentTable documents = new DocumentTable(new File(dir, PersistentHashedIndex.DOCINFO_FNAME));
+        PageRankScores.of(names, x, documents).write(new File(dir, PersistentHashedIndex.PAGERANK_FNAME));
+    }
+
+    /** Returns the k nodes with the highest scores, best first. */
+    int[] top(double[] x, int k) {
+        TopKHeap heap = new TopKHeap(k);
+        for (int i = 0; i < n; i++) {
+            heap.add(i, x[i]);
+        }
+        PostingsList best = heap.toPostingsList();
+        int[] nodes = new int[best.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = best.docID(i);
+        }
+        return nodes;
+    }
+
+    /* --------------------------------------------- */
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String linksFile = null, titlesFile = null, rankFile = "pagerank_scores.txt", method = "power";
+        String previousFile = null;
+        boolean compare = false;
+        int walksPerNode = 10, threads = 0;
+        double epsilon = EPSILON;
+        boolean store = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("-titles".equals(args[i]) && i + 1 < args.length) {
+                titlesFile = args[++i];
+            } else if ("-o".equals(args[i]) && i + 1 < args.length) {
+                rankFile = args[++i];
+            } else if ("-m".equals(args[i]) && i + 1 < args.length) {
+                method = args[++i];
+            } else if ("-w".equals(args[i]) && i + 1 < args.length) {
+                walksPerNode = Integer.parseInt(args[++i]);
+            } else if ("-e".equals(args[i]) && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[++i]);
+            } else if ("-t".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-ni".equals(args[i])) {
+                store = true;
+            } else if ("-prev".equals(args[i]) && i + 1 < args.length) {
+                previousFile = args[++i];
+            } else if ("-compare".equals(args[i])) {
+                compare = true;
+            } else if (linksFile == null && !args[i].startsWith("-")) {
+                linksFile = args[i];
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        if (linksFile == null) {
+            System.err.println("Usage: java ir.PageRank links_file [-titles titles_file] [-o rank_file]");
+            System.err.println("           [-m power|mc1|mc4] [-w walks_per_node] [-e epsilon] [-t threads] [-ni]");
+            System.err.println("           [-prev old_rank_file [-compare]]");
+            return;
+        }
+
+        long start = System.nanoTime();
+        PageRank pr = new PageRank(linksFile);
+        if (threads > 0) {
+            pr.threads = threads;
+        }
+        if (titlesFile != null) {
+            pr.readTitles(titlesFile);
+        }
+        System.err.println(String.format("Read %d nodes and %d links in %.2f s", pr.n, pr.graph.links(),
+                (System.nanoTime() - start) / 1e9));
+
+        start = System.nanoTime();
+        double[] x;
+        if ("mc1".equals(method)) {
+            x = pr.monteCarloEndPoint((long) walksPerNode * pr.n, 42);
+            System.err.println(String.format("mc1 done in %.2f s", (System.nanoTime() - start) / 1e9));
+        } else if ("mc4".equals(method)) {
+            x = pr.monteCarloCompletePath(walksPerNode, 42);
+            System.err.println(String.format("mc4 done in %.2f s", (System.nanoTime() - start) / 1e9));
+        } else if (previousFile != null) {
+            double[] previous = pr.readScores(previousFile);
+            System.err.println(String.format("Read %s in %.2f s", previousFile, (System.nanoTime() - start) / 1e9));
+            start = System.nanoTime();
+            x = pr.powerIteration(previous, epsilon, MAX_NUMBER_OF_STEPS);
+            long warm = System.nanoTime() - start;
+            int warmIterations = pr.iterations;
+            System.err.println(String.format("%d iterations from the earlier scores, done in %.2f s",
+                    warmIterations, warm / 1e9));
+            if (compare) {
+                start = System.nanoTime();
+                double[] cold = pr.powerIteration(epsilon, MAX_NUMBER_OF_STEPS);
+                long elapsed = System.nanoTime() - start;
+                double difference = 0;
+                for (int i = 0; i < pr.n; i++) {
+                    difference += Math.abs(cold[i] - x[i]);
+                }
+                System.err.println(String.format("%d iterations from scratch, done in %.2f s", pr.iterations,
+                        elapsed / 1e9));
+                System.err.println(String.format("Saved %d iterations and %.2f s; scores differ by %.2g (L1)",
+                        pr.iterations - warmIterations, (elapsed - warm) / 1e9, difference));
+            }
+        } else {
+            x = pr.powerIteration(epsilon, MAX_NUMBER_OF_STEPS);
+            System.err.println(String.format("%d iterations, done in %.2f s", pr.iterations,
+                    (System.nanoTime() - start) / 1e9));
+        }
+
+        for (int node : pr.top(x, 30)) {
+            System.out.println(pr.names[node] + ": " + String.format("%.5f", x[node]));
+        }
+        pr.writeScores(x, rankFile);
+        if (store) {
+            pr.storeWithIndex(x);
+        }
+    }
+}
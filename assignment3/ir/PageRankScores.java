@@ -0,0 +1,129 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The PageRank scores of the documents of an index, in a dense array
+ * indexed by docID, so that ranking a posting by PageRank is an array
+ * lookup.
+ *
+ * The scores are computed elsewhere and given in a text file with lines
+ * <code>name=score</code>, where name is the file name of a document
+ * without its directory. They are matched to docIDs once, when the index
+ * is built, and a persistent index stores them in binary next to its
+ * other files.
+ */
+public class PageRankScores {
+
+    /** The scores, by docID; NaN for documents that have no score. */
+    private double[] scores;
+
+    /** Creates an empty set of scores, where no document has a score. */
+    public PageRankScores() {
+        this(new double[0]);
+    }
+
+    private PageRankScores(double[] scores) {
+        this.scores = scores;
+    }
+
+    /** Returns the PageRank score of a document, or NaN if it has none. */
+    public double score(int docID) {
+        return docID < scores.length ? scores[docID] : Double.NaN;
+    }
+
+    /** Returns true if a document has a PageRank score. */
+    public boolean has(int docID) {
+        return !Double.isNaN(score(docID));
+    }
+
+    /**
+     * Reads the scores of the documents of <code>documents</code> from a
+     * text file with lines <code>name=score</code>.
+     */
+    public static PageRankScores read(File rankFile, DocumentTable documents) throws IOException {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Double> scores = new ArrayList<Double>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(rankFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.lastIndexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                try {
+                    scores.add(Double.parseDouble(line.substring(eq + 1).trim()));
+                    names.add(line.substring(0, eq));
+                } catch (NumberFormatException e) {
+                    System.err.println("Bad PageRank score: " + line);
+                }
+            }
+        }
+        double[] values = new double[scores.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = scores.get(i);
+        }
+        return of(names.toArray(new String[0]), values, documents);
+    }
+
+    /**
+     * Returns the scores of the documents of <code>documents</code>, given
+     * the score of every file name in <code>names</code>.
+     */
+    public static PageRankScores of(String[] names, double[] scores, DocumentTable documents) {
+        int n = documents.capacity();
+        HashMap<String, Integer> docIDs = new HashMap<String, Integer>(2 * n);
+        for (int docID = 0; docID < n; docID++) {
+            String name = documents.name(docID);
+            if (name != null) {
+                docIDs.put(new File(name).getName(), docID);
+            }
+        }
+
+        double[] byDocID = new double[n];
+        Arrays.fill(byDocID, Double.NaN);
+        for (int i = 0; i < names.length; i++) {
+            Integer docID = docIDs.get(names[i]);
+            if (docID != null) {
+                byDocID[docID] = scores[i];
+            }
+        }
+        return new PageRankScores(byDocID);
+    }
+
+    /** Writes the scores to <code>file</code>. */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocate(4 + 8 * scores.length);
+            buf.putInt(scores.length);
+            buf.asDoubleBuffer().put(scores);
+            buf.clear();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /** Reads scores written by <code>write</code>. */
+    public static PageRankScores load(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            }
+            buf.flip();
+            double[] scores = new double[buf.getInt()];
+            buf.asDoubleBuffer().get(scores);
+            return new PageRankScores(scores);
+        }
+    }
+}
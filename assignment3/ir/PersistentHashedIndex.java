@@ -9,6 +9,8 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 
 /*
@@ -19,8 +21,10 @@ import java.nio.charset.*;
  *   disk seeks. 
  *
  *   When words are read and indexed, they are first put in an ordinary,
- *   main-memory HashMap. When all words are read, the index is committed
- *   to disk.
+ *   main-memory HashedIndex. When all words are read, the index is committed
+ *   to disk. If the HashedIndex grows beyond the memory budget, it is written
+ *   to disk as a sorted block, and the blocks are merged on commit. The
+ *   terms themselves are written to a file of their own, in term ID order.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -39,30 +43,107 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
+    /** The document norms file name */
+    public static final String NORMS_FNAME = "norms";
+
+    /** The PageRank scores file name */
+    public static final String PAGERANK_FNAME = "pagerank";
+
+    /** Prefix of the names of the temporary block files */
+    public static final String BLOCK_FNAME = "block";
+
     /** The dictionary hash table on disk can fit this many entries. */
     public static final long TABLESIZE = 611953L;
 
+    /**
+     * Size in bytes of one dictionary entry: the pointer into the data file,
+     * the size of the postings record and a checksum of the term.
+     */
+    public static final int ENTRYSIZE = 8 + 4 + 8;
+
+    /**
+     * Number of consecutive dictionary slots read with one disk seek when
+     * looking up a term.
+     */
+    static final int PROBE_WINDOW = 8;
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** Whether the index was opened for reading only. */
+    boolean readOnly = false;
+
+    /** How the postings lists are compressed when the index is written. */
+    CompressionType compression = CompressionType.VBYTE;
+
+    /** The dictionary file mapped into memory, or null if it is not mapped. */
+    MappedFile mappedDictionary;
+
+    /** The data file mapped into memory, or null if it is not mapped. */
+    MappedFile mappedData;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
-    /** The cache as a main-memory hash map. */
-    HashMap<String, PostingsList> index = new HashMap<String, PostingsList>();
+    /** The names and lengths of the documents. */
+    DocumentTable documents;
+
+    /** The norms of the documents, or null before the index is written. */
+    DocumentNorms norms;
+
+    /** The terms of the index. */
+    TermDictionary dictionary;
+
+    /** The cache as a main-memory index. */
+    HashedIndex index;
+
+    /**
+     * When the main-memory index is estimated to use more than this many
+     * bytes, it is written to disk as a sorted block (SPIMI). The blocks
+     * are merged into the final index by <code>writeIndex</code>.
+     */
+    long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    /** The docID of the last inserted token. */
+    int lastDocID = -1;
+
+    /** The block files written so far. */
+    ArrayList<File> blocks = new ArrayList<File>();
+
+    /** Size of the buffers used when streaming blocks and postings. */
+    static final int BUFFER_SIZE = 1 << 20;
 
     // ===================================================================
 
     /**
      * A helper class representing one entry in the dictionary hashtable.
+     *
+     * The term itself is not stored in the dictionary; a 64-bit checksum
+     * of the term is used to tell apart terms that hash to the same slot.
+     * An entry with size 0 denotes an empty slot.
      */
     public class Entry {
-        //
-        // YOUR CODE HERE
-        //
+        /** Where the postings record starts in the data file. */
+        long ptr;
+
+        /** The size in bytes of the postings record. */
+        int size;
+
+        /** Checksum of the term this entry belongs to. */
+        long checksum;
+
+        public Entry(long ptr, int size, long checksum) {
+            this.ptr = ptr;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
     }
 
     // ==================================================================
@@ -72,19 +153,80 @@ public class PersistentHashedIndex implements Index {
      * If these files don't exist, they will be created.
      */
     public PersistentHashedIndex() {
+        this(false);
+    }
+
+    /**
+     * Constructor. Opens the dictionary file and the data file.
+     *
+     * @param readOnly If true, the index is only searched: the files must
+     *                 exist and are mapped into memory, so that lookups
+     *                 need no system calls. Otherwise the files are created
+     *                 if they don't exist.
+     */
+    public PersistentHashedIndex(boolean readOnly) {
+        this(readOnly, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Constructor. Opens the dictionary file and the data file.
+     *
+     * @param readOnly     See above.
+     * @param memoryBudget Number of bytes the main-memory index may use
+     *                     before it is flushed to disk as a block.
+     */
+    public PersistentHashedIndex(boolean readOnly, long memoryBudget) {
+        this(readOnly, memoryBudget, CompressionType.VBYTE);
+    }
+
+    /**
+     * Constructor. Opens the dictionary file and the data file.
+     *
+     * @param readOnly     See above.
+     * @param memoryBudget See above.
+     * @param compression  How postings lists are compressed when the index
+     *                     is written. An index can always be read, whatever
+     *                     compression it was written with.
+     */
+    public PersistentHashedIndex(boolean readOnly, long memoryBudget, CompressionType compression) {
+        this.readOnly = readOnly;
+        this.memoryBudget = memoryBudget;
+        this.compression = compression;
+        new File(INDEXDIR).mkdirs();
         try {
-            dictionaryFile = new RandomAccessFile(INDEXDIR + "/" + DICTIONARY_FNAME, "rw");
-            dataFile = new RandomAccessFile(INDEXDIR + "/" + DATA_FNAME, "rw");
+            String mode = readOnly ? "r" : "rw";
+            dictionaryFile = new RandomAccessFile(INDEXDIR + "/" + DICTIONARY_FNAME, mode);
+            dataFile = new RandomAccessFile(INDEXDIR + "/" + DATA_FNAME, mode);
+            if (readOnly) {
+                map();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        try {
-            readDocInfo();
-        } catch (FileNotFoundException e) {
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (readOnly) {
+            // The document table is only read when it is first used
+            documents = new DocumentTable(new File(INDEXDIR, DOCINFO_FNAME));
+            try {
+                norms = DocumentNorms.read(new File(INDEXDIR, NORMS_FNAME));
+            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                dictionary = TermDictionary.read(new File(INDEXDIR, TERMS_FNAME));
+            } catch (FileNotFoundException e) {
+                System.err.println("Warning: the index has no terms file; the k-gram index will be empty");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            documents = new DocumentTable();
         }
+        if (dictionary == null) {
+            dictionary = new TermDictionary();
+        }
+        index = new HashedIndex(dictionary);
     }
 
     /**
@@ -92,10 +234,9 @@ public class PersistentHashedIndex implements Index {
      *
      * @return The number of bytes written.
      */
-    int writeData(String dataString, long ptr) {
+    int writeData(byte[] data, long ptr) {
         try {
             dataFile.seek(ptr);
-            byte[] data = dataString.getBytes();
             dataFile.write(data);
             return data.length;
         } catch (IOException e) {
@@ -107,18 +248,84 @@ public class PersistentHashedIndex implements Index {
     /**
      * Reads data from the data file
      */
-    String readData(long ptr, int size) {
+    byte[] readData(long ptr, int size) {
         try {
             dataFile.seek(ptr);
             byte[] data = new byte[size];
             dataFile.readFully(data);
-            return new String(data);
+            return data;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Maps the dictionary file and the data file into memory. Does nothing
+     * if the dictionary has not been written yet.
+     */
+    void map() throws IOException {
+        if (dictionaryFile.length() != TABLESIZE * ENTRYSIZE) {
+            return;
+        }
+        // No dictionary entry may cross a segment boundary.
+        mappedDictionary = new MappedFile(dictionaryFile, MappedFile.SEGMENT_SIZE / ENTRYSIZE * ENTRYSIZE);
+        mappedData = new MappedFile(dataFile, MappedFile.SEGMENT_SIZE);
+    }
+
+    // ==================================================================
+    //
+    // Encoding and decoding of postings lists.
+
+    /**
+     * Encodes a postings list as a delta-gap compressed record. Blocks are
+     * only written at document boundaries, so the lengths of the documents
+     * in <code>pl</code> are known and its score bounds can be stored too.
+     * The Euclidean bounds are only stored when the index is committed.
+     */
+    byte[] encodePostings(PostingsList pl) {
+        if (pl.bounds() == null) {
+            pl.setBounds(ScoreBounds.of(pl, documents, null));
+        }
+        return PostingsCodec.forType(compression).encode(pl);
+    }
+
+    /**
+     * Returns the postings list encoded in <code>buf</code> by
+     * <code>encodePostings</code>. It is decoded lazily.
+     */
+    static PostingsList decodePostings(ByteBuffer buf) {
+        return PostingsCodec.decode(buf);
+    }
+
+    // ==================================================================
+    //
+    // Hashing of terms.
+
+    /**
+     * Returns the dictionary slot where the search for <code>term</code>
+     * starts.
+     */
+    static long slot(String term) {
+        int h = term.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & 0x7fffffffL) % TABLESIZE;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a checksum of <code>term</code>. Never returns 0.
+     */
+    static long checksum(String term) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            h ^= term.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
     // ==================================================================
     //
     // Reading and writing to the dictionary file.
@@ -131,9 +338,14 @@ public class PersistentHashedIndex implements Index {
      * @param ptr The place in the dictionary file to store the entry
      */
     void writeEntry(Entry entry, long ptr) {
-        //
-        // YOUR CODE HERE
-        //
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(ENTRYSIZE);
+            putEntry(buf, entry);
+            dictionaryFile.seek(ptr);
+            dictionaryFile.write(buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -142,69 +354,418 @@ public class PersistentHashedIndex implements Index {
      * @param ptr The place in the dictionary file where to start reading.
      */
     Entry readEntry(long ptr) {
-        //
-        // REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
-        return null;
+        try {
+            byte[] data = new byte[ENTRYSIZE];
+            dictionaryFile.seek(ptr);
+            dictionaryFile.readFully(data);
+            return getEntry(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
-    // ==================================================================
+    /** Puts an entry at the current position of <code>buf</code>. */
+    static void putEntry(ByteBuffer buf, Entry entry) {
+        buf.putLong(entry.ptr);
+        buf.putInt(entry.size);
+        buf.putLong(entry.checksum);
+    }
 
-    /**
-     * Writes the document names and document lengths to file.
-     *
-     * @throws IOException { exception_description }
-     */
-    private void writeDocInfo() throws IOException {
-        FileOutputStream fout = new FileOutputStream(INDEXDIR + "/docInfo");
-        for (Map.Entry<Integer, String> entry : docNames.entrySet()) {
-            Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
-            fout.write(docInfoEntry.getBytes());
-        }
-        fout.close();
+    /** Gets an entry from the current position of <code>buf</code>. */
+    Entry getEntry(ByteBuffer buf) {
+        long ptr = buf.getLong();
+        int size = buf.getInt();
+        long checksum = buf.getLong();
+        return new Entry(ptr, size, checksum);
     }
 
     /**
-     * Reads the document names and document lengths from file, and
-     * put them in the appropriate data structures.
+     * Finds the dictionary entry of <code>term</code> using linear probing.
+     * The slots are read <code>PROBE_WINDOW</code> at a time, so that a
+     * lookup normally costs a single seek.
      *
-     * @throws IOException { exception_description }
+     * @return The entry, or null if the term is not in the dictionary.
      */
-    private void readDocInfo() throws IOException {
-        File file = new File(INDEXDIR + "/docInfo");
-        FileReader freader = new FileReader(file);
-        try (BufferedReader br = new BufferedReader(freader)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(";");
-                docNames.put(new Integer(data[0]), data[1]);
-                docLengths.put(new Integer(data[0]), new Integer(data[2]));
+    Entry lookup(String term) {
+        long checksum = checksum(term);
+        long slot = slot(term);
+        if (mappedDictionary != null) {
+            for (long probed = 0; probed < TABLESIZE; probed++) {
+                long ptr = slot * ENTRYSIZE;
+                int size = mappedDictionary.getInt(ptr + 8);
+                if (size == 0) {
+                    return null;
+                }
+                if (mappedDictionary.getLong(ptr + 12) == checksum) {
+                    return new Entry(mappedDictionary.getLong(ptr), size, checksum);
+                }
+                slot = (slot + 1) % TABLESIZE;
             }
+            return null;
         }
-        freader.close();
+        try {
+            for (long probed = 0; probed < TABLESIZE;) {
+                int window = (int) Math.min(PROBE_WINDOW, TABLESIZE - slot);
+                byte[] data = new byte[window * ENTRYSIZE];
+                dictionaryFile.seek(slot * ENTRYSIZE);
+                dictionaryFile.readFully(data);
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                for (int i = 0; i < window; i++) {
+                    Entry entry = getEntry(buf);
+                    if (entry.isEmpty()) {
+                        return null;
+                    }
+                    if (entry.checksum == checksum) {
+                        return entry;
+                    }
+                }
+                probed += window;
+                slot = (slot + window) % TABLESIZE;
+            }
+        } catch (EOFException e) {
+            // The dictionary has not been written yet.
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
+    // ==================================================================
+
     /**
      * Write the index to files.
      */
     public void writeIndex() {
         int collisions = 0;
         try {
-            // Write the 'docNames' and 'docLengths' hash maps to a file
-            writeDocInfo();
+            // Write the document table and the terms to files
+            documents.write(new File(INDEXDIR, DOCINFO_FNAME));
+            dictionary.write(new File(INDEXDIR, TERMS_FNAME));
 
             // Write the dictionary and the postings list
-
-            //
-            // YOUR CODE HERE
-            //
+            mappedDictionary = null;
+            mappedData = null;
+            dataFile.setLength(0);
+            IndexWriter writer = new IndexWriter();
+            if (blocks.isEmpty()) {
+                for (int termID : index.termIDs()) {
+                    writer.write(dictionary.term(termID), encodePostings(index.getPostings(termID)));
+                }
+            } else {
+                if (index.size() > 0) {
+                    flushBlock();
+                }
+                mergeBlocks(writer);
+            }
+            collisions = writer.finish();
+            map();
         } catch (IOException e) {
             e.printStackTrace();
         }
         System.err.println(collisions + " collisions.");
     }
 
+    /**
+     * Builds the dictionary hash table in memory while the postings
+     * records are streamed to the data file. The table is written with
+     * one write when all terms have been added.
+     *
+     * All documents are indexed by now, so the idf of every term is
+     * stored in its record, and the norms of the documents are computed
+     * as the terms go by. The Euclidean score bounds of the records are
+     * filled in at the end, once the norms are known.
+     */
+    class IndexWriter {
+        ByteBuffer table = ByteBuffer.allocate((int) (TABLESIZE * ENTRYSIZE));
+        BitSet occupied = new BitSet((int) TABLESIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        FileChannel channel = dataFile.getChannel();
+        int terms = 0;
+        int collisions = 0;
+        int N = documents.size();
+        DocumentNorms documentNorms = new DocumentNorms(documents);
+
+        /** Where the records start and their sizes, in the order they were written. */
+        long[] ptrs = new long[1024];
+        int[] sizes = new int[1024];
+
+        IndexWriter() {
+            free = 0L;
+        }
+
+        /** Appends the postings record of <code>term</code> to the index. */
+        void write(String term, byte[] record) throws IOException {
+            if (++terms >= TABLESIZE) {
+                throw new IOException("The dictionary can't fit more than " + TABLESIZE + " terms");
+            }
+            double idf = Math.log((double) N / PostingsCodec.df(record));
+            PostingsCodec.setIdf(record, idf);
+            documentNorms.add(decodePostings(ByteBuffer.wrap(record)), idf);
+
+            // Records must not cross a segment boundary when the data
+            // file is mapped into memory.
+            int padding = MappedFile.padding(free, record.length, MappedFile.SEGMENT_SIZE);
+            put(new byte[padding]);
+            free += padding;
+            put(record);
+
+            int slot = (int) slot(term);
+            while (occupied.get(slot)) {
+                collisions++;
+                slot = (int) ((slot + 1) % TABLESIZE);
+            }
+            occupied.set(slot);
+            table.position(slot * ENTRYSIZE);
+            putEntry(table, new Entry(free, record.length, checksum(term)));
+            if (terms > ptrs.length) {
+                ptrs = Arrays.copyOf(ptrs, 2 * ptrs.length);
+                sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+            }
+            ptrs[terms - 1] = free;
+            sizes[terms - 1] = record.length;
+            free += record.length;
+        }
+
+        private void put(byte[] data) throws IOException {
+            if (data.length > out.remaining()) {
+                drain();
+            }
+            if (data.length > out.remaining()) {
+                channel.write(ByteBuffer.wrap(data));
+            } else {
+                out.put(data);
+            }
+        }
+
+        private void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        /**
+         * Flushes the data file and writes the dictionary.
+         *
+         * @return The number of collisions in the dictionary.
+         */
+        int finish() throws IOException {
+            drain();
+            if (terms > TABLESIZE / 2) {
+                System.err.println("Warning: " + terms + " terms in a dictionary of " + TABLESIZE
+                        + " slots; lookups will be slow.");
+            }
+            dictionaryFile.setLength(0);
+            dictionaryFile.seek(0);
+            dictionaryFile.write(table.array());
+            documentNorms.finish();
+            documentNorms.write(new File(INDEXDIR, NORMS_FNAME));
+            norms = documentNorms;
+
+            double[] euclidean = documentNorms.lengths(NormalizationType.EUCLIDEAN);
+            for (int i = 0; i < terms; i++) {
+                byte[] record = new byte[sizes[i]];
+                dataFile.seek(ptrs[i]);
+                dataFile.readFully(record);
+                PostingsList pl = decodePostings(ByteBuffer.wrap(record));
+                PostingsCodec.setBounds(record, ScoreBounds.of(pl, documents, euclidean));
+                dataFile.seek(ptrs[i]);
+                dataFile.write(record);
+            }
+            return collisions;
+        }
+    }
+
+    // ==================================================================
+    //
+    // Single-pass in-memory indexing: the main-memory index is written to
+    // disk as a block of sorted terms whenever it grows beyond the memory
+    // budget, and all blocks are merged when the index is committed.
+
+    /**
+     * Writes the main-memory index to a new block file, sorted by term,
+     * and empties it.
+     */
+    void flushBlock() throws IOException {
+        flushBlock(index);
+        index = new HashedIndex(dictionary);
+    }
+
+    /**
+     * Writes the postings lists in <code>index</code> to a new block file,
+     * sorted by term.
+     */
+    void flushBlock(HashedIndex index) throws IOException {
+        int[] termIDs = index.termIDs();
+        String[] terms = new String[termIDs.length];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = dictionary.term(termIDs[i]);
+        }
+        Arrays.sort(terms);
+        File file = new File(INDEXDIR, BLOCK_FNAME + blocks.size());
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+            for (String term : terms) {
+                byte[] key = term.getBytes(StandardCharsets.UTF_8);
+                byte[] record = encodePostings(index.getPostings(term));
+                if (8 + key.length + record.length > out.remaining()) {
+                    out.flip();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                    out.clear();
+                }
+                if (8 + key.length + record.length > out.capacity()) {
+                    out = ByteBuffer.allocate(8 + key.length + record.length);
+                }
+                out.putInt(key.length).put(key).putInt(record.length).put(record);
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        System.err.println("Wrote block " + file + " with " + terms.length + " terms");
+        blocks.add(file);
+    }
+
+    /**
+     * Writes each partial index to disk as a block. The blocks are merged
+     * when the index is committed.
+     */
+    public void merge(List<HashedIndex> partials) {
+        try {
+            for (HashedIndex partial : partials) {
+                flushBlock(partial);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long memoryBudget() {
+        return memoryBudget;
+    }
+
+    public DocumentTable documents() {
+        return documents;
+    }
+
+    public TermDictionary terms() {
+        return dictionary;
+    }
+
+    public DocumentNorms norms() {
+        return norms;
+    }
+
+    /**
+     * Reads the (term, postings record) pairs of a block file in order,
+     * streaming it through a buffer.
+     */
+    static class BlockReader implements Comparable<BlockReader> {
+        final int block;
+        FileChannel channel;
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        String term;
+        byte[] record;
+
+        BlockReader(File file, int block) throws IOException {
+            this.block = block;
+            channel = new FileInputStream(file).getChannel();
+            buf.flip();
+        }
+
+        /** Advances to the next term, returns false at the end of the block. */
+        boolean next() throws IOException {
+            if (!fill(4)) {
+                return false;
+            }
+            byte[] key = new byte[buf.getInt()];
+            fill(key.length + 4);
+            buf.get(key);
+            term = new String(key, StandardCharsets.UTF_8);
+            record = new byte[buf.getInt()];
+            fill(record.length);
+            buf.get(record);
+            return true;
+        }
+
+        /** Makes sure <code>n</code> bytes are buffered. */
+        private boolean fill(int n) throws IOException {
+            if (buf.remaining() >= n) {
+                return true;
+            }
+            if (n > buf.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(n);
+                bigger.put(buf);
+                buf = bigger;
+            } else {
+                buf.compact();
+            }
+            while (buf.position() < n && channel.read(buf) > 0) {
+            }
+            buf.flip();
+            return buf.remaining() >= n;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        public int compareTo(BlockReader other) {
+            int c = term.compareTo(other.term);
+            return c != 0 ? c : Integer.compare(block, other.block);
+        }
+    }
+
+    /**
+     * Merges all block files into the final index, one term at a time,
+     * and removes them.
+     */
+    void mergeBlocks(IndexWriter writer) throws IOException {
+        PriorityQueue<BlockReader> queue = new PriorityQueue<BlockReader>();
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockReader reader = new BlockReader(blocks.get(i), i);
+            if (reader.next()) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+        while (!queue.isEmpty()) {
+            BlockReader reader = queue.poll();
+            String term = reader.term;
+            byte[] record = reader.record;
+            PostingsList merged = null;
+            while (true) {
+                if (reader != null) {
+                    if (reader.next()) {
+                        queue.add(reader);
+                    } else {
+                        reader.close();
+                    }
+                }
+                if (queue.isEmpty() || !queue.peek().term.equals(term)) {
+                    break;
+                }
+                // The term occurs in several blocks
+                reader = queue.poll();
+                if (merged == null) {
+                    merged = decodePostings(ByteBuffer.wrap(record));
+                }
+                merged = PostingsList.merge(merged, decodePostings(ByteBuffer.wrap(reader.record)));
+            }
+            writer.write(term, merged == null ? record : encodePostings(merged));
+        }
+        for (File block : blocks) {
+            block.delete();
+        }
+        blocks.clear();
+    }
+
     // ==================================================================
 
     /**
@@ -212,26 +773,49 @@ public class PersistentHashedIndex implements Index {
      * if the term is not in the index.
      */
     public PostingsList getPostings(String token) {
-        //
-        // REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
-        return null;
+        Entry entry = lookup(token);
+        if (entry == null) {
+            return null;
+        }
+        if (mappedData != null) {
+            return decodePostings(mappedData.slice(entry.ptr, entry.size));
+        }
+        byte[] data = readData(entry.ptr, entry.size);
+        if (data == null) {
+            return null;
+        }
+        return decodePostings(ByteBuffer.wrap(data));
     }
 
     /**
      * Inserts this token in the main-memory hashtable.
      */
     public void insert(String token, int docID, int offset) {
-        //
-        // YOUR CODE HERE
-        //
+        if (docID != lastDocID) {
+            // Blocks are only flushed between documents, so that the
+            // postings of a document never span two blocks.
+            lastDocID = docID;
+            if (index.memoryUsed > memoryBudget) {
+                try {
+                    flushBlock();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        index.insert(token, docID, offset);
     }
 
     /**
      * Write index to file after indexing is done.
      */
     public void cleanup() {
-        System.err.println(index.keySet().size() + " unique words");
+        if (readOnly) {
+            return;
+        }
+        if (blocks.isEmpty()) {
+            System.err.println(index.size() + " unique words");
+        }
         System.err.print("Writing index to disk...");
         writeIndex();
         System.err.println("done!");
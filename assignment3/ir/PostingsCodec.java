@@ -0,0 +1,387 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compresses postings lists for the persistent index.
+ *
+ * A postings list is turned into a sequence of integers: for every posting
+ * the gap to the previous docID, the term frequency and the gaps between
+ * its positions. Gaps are small numbers, which the subclasses encode into
+ * few bytes.
+ *
+ * The postings are encoded in blocks of about sqrt(df) postings, and the
+ * first docID of every block is stored in a skip table, so that a cursor
+ * can jump over blocks. The score bounds of every block (see ScoreBounds)
+ * follow the skip table. The record looks like this:
+ *
+ *   codec (1 byte), df (VByte), the idf of the term (8 bytes),
+ *   block size, number of skips (VByte),
+ *   skip table: (first docID, byte offset) of every block but the first,
+ *   bounds: (words, Euclidean) of every block (4 bytes each),
+ *   the blocks.
+ *
+ * Decoding is lazy: a cursor decodes one posting at a time, and only
+ * decodes the positions of a posting if they are asked for.
+ */
+public abstract class PostingsCodec {
+
+    /** Reads encoded integers one at a time. */
+    interface IntDecoder {
+
+        /** Decodes the next integer. */
+        int next();
+
+        /** Skips over the next <code>n</code> integers. */
+        void skip(int n);
+    }
+
+    /** Encodes <code>values[0..n)</code> and appends them to <code>out</code>. */
+    abstract void encode(int[] values, int n, ByteArrayOutputStream out);
+
+    /** Returns a decoder reading from <code>buf</code>, starting at <code>ptr</code>. */
+    abstract IntDecoder decoder(ByteBuffer buf, int ptr);
+
+    /** The type of this codec. */
+    abstract CompressionType type();
+
+    private static final PostingsCodec VBYTE = new VByteCodec();
+    private static final PostingsCodec SIMPLE8B = new Simple8bCodec();
+
+    /** Returns the codec for a compression type. */
+    public static PostingsCodec forType(CompressionType type) {
+        return type == CompressionType.SIMPLE8B ? SIMPLE8B : VBYTE;
+    }
+
+    // ==================================================================
+
+    /** Postings lists shorter than this are encoded without skips. */
+    static final int MIN_BLOCK_SIZE = 16;
+
+    /** Number of postings in each block of a list of <code>df</code> postings. */
+    static int blockSize(int df) {
+        return Math.max(MIN_BLOCK_SIZE, (int) Math.sqrt(df));
+    }
+
+    /**
+     * Encodes a postings list as a delta-gap compressed record. The score
+     * bounds of the list must be set.
+     */
+    public byte[] encode(PostingsList pl) {
+        int df = pl.size();
+        int blockSize = blockSize(df);
+        int skips = df == 0 ? 0 : (df - 1) / blockSize;
+        int[] skipDocIDs = new int[skips];
+        int[] skipOffsets = new int[skips];
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream(2 * df + 16);
+        int[] values = new int[3 * blockSize];
+        int n = 0;
+        int lastDocID = 0;
+        int i = 0;
+        PostingsCursor c = pl.cursor();
+        while (c.next()) {
+            if (i > 0 && i % blockSize == 0) {
+                // Every block is encoded on its own, starting from docID 0
+                encode(values, n, blocks);
+                n = 0;
+                lastDocID = 0;
+                skipDocIDs[i / blockSize - 1] = c.docID();
+                skipOffsets[i / blockSize - 1] = blocks.size();
+            }
+            if (n + 2 + c.tf() > values.length) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, n + 2 + c.tf()));
+            }
+            values[n++] = c.docID() - lastDocID;
+            values[n++] = c.tf();
+            int lastPosition = 0;
+            for (int j = 0; j < c.tf(); j++) {
+                values[n++] = c.position(j) - lastPosition;
+                lastPosition = c.position(j);
+            }
+            lastDocID = c.docID();
+            i++;
+        }
+        encode(values, n, blocks);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(blocks.size() + 16 * skips + 24);
+        out.write(type().ordinal());
+        VByteCodec.write(df, out);
+        ByteBuffer idf = ByteBuffer.allocate(8);
+        idf.putDouble(pl.idf());
+        out.write(idf.array(), 0, 8);
+        VByteCodec.write(blockSize, out);
+        VByteCodec.write(skips, out);
+        ByteBuffer table = ByteBuffer.allocate(8 * skips + 8 * (skips + 1));
+        for (int k = 0; k < skips; k++) {
+            table.putInt(skipDocIDs[k]);
+            table.putInt(skipOffsets[k]);
+        }
+        putBounds(table, pl.bounds());
+        out.write(table.array(), 0, table.capacity());
+        out.write(blocks.toByteArray(), 0, blocks.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a postings list backed by the encoded record in
+     * <code>buf</code>. The record is decoded lazily.
+     */
+    public static PostingsList decode(ByteBuffer buf) {
+        ByteBuffer data = buf.slice();
+        PostingsCodec codec = forType(CompressionType.values()[data.get(0)]);
+        VByteCodec.Decoder header = new VByteCodec.Decoder(data, 1);
+        int df = header.next();
+        double idf = data.getDouble(header.ptr);
+        header.ptr += 8;
+        int blockSize = header.next();
+        int skips = header.next();
+        int skipTable = header.ptr;
+        int[] ends = new int[skips + 1];
+        float[] words = new float[skips + 1];
+        float[] euclidean = new float[skips + 1];
+        for (int k = 0; k <= skips; k++) {
+            ends[k] = k < skips ? data.getInt(skipTable + 8 * k) : Integer.MAX_VALUE;
+            words[k] = data.getFloat(skipTable + 8 * skips + 8 * k);
+            euclidean[k] = data.getFloat(skipTable + 8 * skips + 8 * k + 4);
+        }
+        return new PostingsList(codec, data, df, new ScoreBounds(blockSize, ends, words, euclidean), idf);
+    }
+
+    /** Writes the bounds of every block at the position of <code>buf</code>. */
+    private static void putBounds(ByteBuffer buf, ScoreBounds bounds) {
+        for (int k = 0; k < bounds.blocks(); k++) {
+            buf.putFloat(bounds.words[k]);
+            buf.putFloat(bounds.euclidean[k]);
+        }
+    }
+
+    /** Returns the df stored in an encoded record. */
+    static int df(byte[] record) {
+        return new VByteCodec.Decoder(ByteBuffer.wrap(record), 1).next();
+    }
+
+    /** Stores the idf of the term in an encoded record. */
+    static void setIdf(byte[] record, double idf) {
+        VByteCodec.Decoder header = new VByteCodec.Decoder(ByteBuffer.wrap(record), 1);
+        header.next();
+        ByteBuffer.wrap(record).putDouble(header.ptr, idf);
+    }
+
+    /**
+     * Stores the score bounds of the list in an encoded record. They must
+     * have the blocks of the record.
+     */
+    static void setBounds(byte[] record, ScoreBounds bounds) {
+        VByteCodec.Decoder header = new VByteCodec.Decoder(ByteBuffer.wrap(record), 1);
+        header.next();
+        header.ptr += 8;
+        header.next();
+        int skips = header.next();
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        buf.position(header.ptr + 8 * skips);
+        putBounds(buf, bounds);
+    }
+
+    /** Returns a cursor decoding the postings list encoded in <code>data</code>. */
+    PostingsCursor cursor(ByteBuffer data) {
+        return new Cursor(this, data);
+    }
+
+    /** A cursor decoding postings on demand. */
+    private static class Cursor implements PostingsCursor {
+        PostingsCodec codec;
+        ByteBuffer data;
+        int df;
+        int blockSize;
+        int skips;
+        /** Where the skip table and the blocks start in the record. */
+        int skipTable;
+        int blocks;
+
+        IntDecoder decoder;
+        /** Number of postings before the current one. */
+        int index = -1;
+        int docID = 0;
+        int tf = 0;
+        boolean positionsDecoded = true;
+        int[] positions = new int[16];
+
+        Cursor(PostingsCodec codec, ByteBuffer data) {
+            this.codec = codec;
+            this.data = data;
+            VByteCodec.Decoder header = new VByteCodec.Decoder(data, 1);
+            df = header.next();
+            header.ptr += 8;
+            blockSize = header.next();
+            skips = header.next();
+            skipTable = header.ptr;
+            blocks = skipTable + 8 * skips + 8 * (skips + 1);
+            decoder = codec.decoder(data, blocks);
+        }
+
+        public boolean next() {
+            if (!positionsDecoded) {
+                decoder.skip(tf);
+            }
+            if (index + 1 >= df) {
+                index = df;
+                return false;
+            }
+            index++;
+            if (index > 0 && index % blockSize == 0) {
+                // A new block starts from docID 0, at the offset given by
+                // the skip table (the previous block may end in padding)
+                decoder = codec.decoder(data, blocks + data.getInt(skipTable + 8 * (index / blockSize - 1) + 4));
+                docID = 0;
+            }
+            docID += decoder.next();
+            tf = decoder.next();
+            positionsDecoded = false;
+            return true;
+        }
+
+        public boolean advance(int target) {
+            if (index >= df) {
+                return false;
+            }
+            if (index >= 0 && docID >= target) {
+                return true;
+            }
+            // Find the last block starting at or before the target,
+            // by galloping and then binary search in the skip table.
+            int block = index < 0 ? 0 : index / blockSize;
+            if (block < skips && skipDocID(block) <= target) {
+                int lo = block, bound = 1;
+                while (lo + bound < skips && skipDocID(lo + bound) <= target) {
+                    lo += bound;
+                    bound *= 2;
+                }
+                int hi = Math.min(lo + bound, skips);
+                // skipDocID(lo) <= target, skipDocID(hi) > target or hi == skips
+                while (hi - lo > 1) {
+                    int mid = (lo + hi) >>> 1;
+                    if (skipDocID(mid) <= target) {
+                        lo = mid;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                // Jump to just before block lo + 1; next() then starts
+                // decoding at its offset
+                index = (lo + 1) * blockSize - 1;
+                positionsDecoded = true;
+            }
+            while (next()) {
+                if (docID >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The first docID of block k + 1. */
+        private int skipDocID(int k) {
+            return data.getInt(skipTable + 8 * k);
+        }
+
+        public int docID() {
+            return docID;
+        }
+
+        public int tf() {
+            return tf;
+        }
+
+        public int position(int j) {
+            if (!positionsDecoded) {
+                if (positions.length < tf) {
+                    positions = new int[Math.max(tf, 2 * positions.length)];
+                }
+                int position = 0;
+                for (int k = 0; k < tf; k++) {
+                    position += decoder.next();
+                    positions[k] = position;
+                }
+                positionsDecoded = true;
+            }
+            return positions[j];
+        }
+
+        public double score() {
+            return 0;
+        }
+    }
+
+    // ==================================================================
+
+    /**
+     * Reports the size and decoding speed of every codec for the postings
+     * lists of the given directory.
+     *
+     * Usage: java ir.PostingsCodec -d dir [-p patterns_file]
+     */
+    public static void main(String[] args) throws IOException {
+        String dir = null, patterns_file = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("-d".equals(args[i])) {
+                dir = args[i + 1];
+            } else if ("-p".equals(args[i])) {
+                patterns_file = args[i + 1];
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        if (dir == null) {
+            System.err.println("Usage: java ir.PostingsCodec -d dir [-p patterns_file]");
+            return;
+        }
+        HashedIndex index = new HashedIndex();
+        new Indexer(index, null, patterns_file).processFiles(new File(dir), true);
+        index.cleanup();
+
+        long postings = 0, positions = 0;
+        for (int termID : index.termIDs()) {
+            PostingsList pl = index.getPostings(termID);
+            postings += pl.size();
+            positions += pl.positionsSize();
+        }
+        long raw = 4 * (index.size() + 2 * postings + positions);
+        System.err.println(index.size() + " terms, " + postings + " postings, " + positions
+                + " positions");
+        System.err.println(String.format("%-10s %10.2f bytes/posting", "raw ints", (double) raw / postings));
+
+        for (CompressionType type : CompressionType.values()) {
+            PostingsCodec codec = forType(type);
+            byte[][] records = new byte[index.size()][];
+            long bytes = 0;
+            int i = 0;
+            for (int termID : index.termIDs()) {
+                records[i] = codec.encode(index.getPostings(termID));
+                bytes += records[i++].length;
+            }
+            // Decode everything a few times; the first rounds warm up the JIT.
+            long checksum = 0, elapsed = 0;
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                for (byte[] record : records) {
+                    PostingsCursor c = decode(ByteBuffer.wrap(record)).cursor();
+                    while (c.next()) {
+                        checksum += c.docID() + c.position(c.tf() - 1);
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+            }
+            System.err.println(String.format("%-10s %10.2f bytes/posting %10.1f M postings/s (%d)", type,
+                    (double) bytes / postings, postings / (elapsed / 1000.0), checksum));
+        }
+    }
+}
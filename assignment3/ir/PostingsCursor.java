@@ -0,0 +1,45 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * Iterates over the postings of a postings list in docID order, without
+ * creating an object per posting.
+ *
+ * A cursor starts before the first posting; call <code>next</code> to move
+ * to it.
+ */
+public interface PostingsCursor {
+
+    /**
+     * Moves to the next posting.
+     *
+     * @return false if there are no more postings.
+     */
+    public boolean next();
+
+    /**
+     * Moves forward to the first posting with a docID of at least
+     * <code>target</code>, jumping over postings where possible. Stays on
+     * the current posting if its docID is already large enough.
+     *
+     * @return false if there is no such posting.
+     */
+    public boolean advance(int target);
+
+    /** The docID of the current posting. */
+    public int docID();
+
+    /** The number of positions (the term frequency) of the current posting. */
+    public int tf();
+
+    /** The <code>j</code>th position of the current posting. */
+    public int position(int j);
+
+    /** The score of the current posting (only relevant in ranked retrieval). */
+    public double score();
+
+}
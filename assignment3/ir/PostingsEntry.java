@@ -7,9 +7,13 @@
 
 package ir;
 
-import java.util.ArrayList;
 import java.io.Serializable;
 
+/**
+ * One posting of a postings list, as returned by <code>PostingsList.get</code>.
+ * The postings themselves are stored in primitive arrays in PostingsList;
+ * use a PostingsCursor to read their positions.
+ */
 public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 
     public int docID;
@@ -30,8 +34,6 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
     // YOUR CODE HERE
     //
 
-    public ArrayList<Integer> offsetsList = new ArrayList<>();
-
     public PostingsEntry(int docID) {
         this.docID = docID;
     }
@@ -45,8 +47,4 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
         this.score = score;
     }
 
-    public void addOffset(int offset) {
-        offsetsList.add(offset);
-    }
-
 }
@@ -7,64 +7,433 @@
 
 package ir;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * A postings list stored in primitive arrays: the docIDs and the term
+ * frequencies of the postings, and the positions of all postings one
+ * after another in a single array. The arrays grow by doubling.
+ *
+ * A postings list read from a persistent index is backed by its encoded
+ * record instead, and is decoded by its cursors. It is only decoded into
+ * the arrays if a posting is accessed by index or the list is modified.
+ */
 public class PostingsList {
 
-    /** The postings list */
-    private ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
+    /** The docIDs of the postings. */
+    private int[] docIDs = new int[2];
+
+    /** The term frequencies (number of positions) of the postings. */
+    private int[] tfs = new int[2];
+
+    /** The positions of all postings. */
+    private int[] positions = new int[2];
+
+    /** The scores of the postings, or null if no score has been set. */
+    private double[] scores;
+
+    /** Number of postings in this list. */
+    private int size = 0;
+
+    /** Number of positions in this list. */
+    private int positionsSize = 0;
+
+    /** The codec of the encoded postings, or null if the list is decoded. */
+    private PostingsCodec codec;
+
+    /** The encoded postings, if the list is not decoded yet. */
+    private ByteBuffer encoded;
+
+    /**
+     * Where the positions of each posting start, computed when a cursor
+     * first jumps in the list.
+     */
+    private int[] starts;
+
+    /**
+     * Number of documents matching the query this list is the result of,
+     * if the list only holds the best of them, or -1.
+     */
+    private int hits = -1;
+
+    /** False if <code>hits</code> is only a lower bound. */
+    private boolean hitsExact = true;
+
+    /**
+     * Upper bounds on the tf-idf scores of the postings, block by block,
+     * or null if not known.
+     */
+    private ScoreBounds bounds;
+
+    /** The idf of the term, or -1 if not known. */
+    private double idf = -1;
+
+    public PostingsList() {
+    }
+
+    /** Creates a list of <code>size</code> postings backed by an encoded record. */
+    PostingsList(PostingsCodec codec, ByteBuffer encoded, int size, ScoreBounds bounds, double idf) {
+        this.codec = codec;
+        this.encoded = encoded;
+        this.size = size;
+        this.bounds = bounds;
+        this.idf = idf;
+    }
+
+    /** Decodes the encoded postings into the arrays. */
+    private void decode() {
+        if (encoded == null) {
+            return;
+        }
+        PostingsCursor c = codec.cursor(encoded);
+        encoded = null;
+        size = 0;
+        ScoreBounds blockBounds = bounds;
+        double termIdf = idf;
+        while (c.next()) {
+            addPosting(c);
+        }
+        bounds = blockBounds;
+        idf = termIdf;
+    }
 
     /** Number of postings in this list. */
     public int size() {
-        return list.size();
+        return size;
+    }
+
+    /**
+     * Number of documents matching the query this list is the result of.
+     * This is larger than <code>size()</code> if only the top results were kept.
+     */
+    public int hits() {
+        return hits < 0 ? size : hits;
+    }
+
+    /**
+     * Returns false if the search stopped before it knew how many
+     * documents match, and <code>hits()</code> is only a lower bound.
+     */
+    public boolean hitsExact() {
+        return hitsExact;
+    }
+
+    void setHits(int hits, boolean exact) {
+        this.hits = hits;
+        this.hitsExact = exact;
+    }
+
+    /**
+     * The bounds on the scores of the postings, or null if they have not
+     * been computed.
+     */
+    ScoreBounds bounds() {
+        return bounds;
+    }
+
+    void setBounds(ScoreBounds bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * The idf of the term, computed when the index was committed, or -1
+     * if this list is not part of a committed index.
+     */
+    public double idf() {
+        return idf;
+    }
+
+    void setIdf(double idf) {
+        this.idf = idf;
     }
 
     /** Returns the ith posting. */
     public PostingsEntry get(int i) {
-        return list.get(i);
+        decode();
+        return new PostingsEntry(docIDs[i], score(i));
     }
 
     //
     // YOUR CODE HERE
     //
 
-    public ArrayList<PostingsEntry> getPostingEntry() {
-        return list;
+    /** The docID of the ith posting. */
+    public int docID(int i) {
+        decode();
+        return docIDs[i];
+    }
+
+    /** The term frequency of the ith posting. */
+    public int tf(int i) {
+        decode();
+        return tfs[i];
+    }
+
+    /** The score of the ith posting. */
+    public double score(int i) {
+        return scores == null ? 0 : scores[i];
+    }
+
+    /** Sets the score of the ith posting. */
+    public void setScore(int i, double score) {
+        decode();
+        if (scores == null) {
+            scores = new double[docIDs.length];
+        }
+        scores[i] = score;
+    }
+
+    /** Total number of positions of all postings. */
+    public int positionsSize() {
+        decode();
+        return positionsSize;
+    }
+
+    /**
+     * Adds a position. If <code>docID</code> is the docID of the last
+     * posting, the position is added to that posting, otherwise a new
+     * posting is added at the end of the list.
+     */
+    public void addPosition(int docID, int position) {
+        decode();
+        if (size == 0 || docIDs[size - 1] != docID) {
+            addPosting(docID);
+        }
+        if (positionsSize == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * positionsSize);
+        }
+        positions[positionsSize++] = position;
+        tfs[size - 1]++;
+        starts = null;
+        bounds = null;
+        idf = -1;
+    }
+
+    /** Adds a posting without positions at the end of the list. */
+    public void addPosting(int docID) {
+        decode();
+        if (size == docIDs.length) {
+            docIDs = Arrays.copyOf(docIDs, 2 * size);
+            tfs = Arrays.copyOf(tfs, 2 * size);
+            if (scores != null) {
+                scores = Arrays.copyOf(scores, 2 * size);
+            }
+        }
+        docIDs[size] = docID;
+        tfs[size] = 0;
+        size++;
+        starts = null;
     }
 
-    private HashMap<Integer, PostingsEntry> hashMap = new HashMap<>();
+    /** Adds a posting with a score at the end of the list. */
+    public void addPosting(int docID, double score) {
+        addPosting(docID);
+        setScore(size - 1, score);
+    }
 
-    public PostingsEntry searchEntry(int docID) {
-        /*
-         * for (PostingsEntry pe : list) {
-         * if (pe.docID == docID) {
-         * return pe;
-         * }
-         * }
-         * return null;
-         */
-        return hashMap.get(docID);
+    /** Adds a copy of the current posting of <code>c</code> at the end of the list. */
+    public void addPosting(PostingsCursor c) {
+        addPosting(c.docID());
+        for (int j = 0; j < c.tf(); j++) {
+            addPosition(c.docID(), c.position(j));
+        }
+    }
 
+    /** Returns a cursor over the postings of this list. */
+    public PostingsCursor cursor() {
+        if (encoded != null) {
+            return codec.cursor(encoded);
+        }
+        return new Cursor();
     }
 
-    public void addPostingEntry(PostingsEntry postingsEntry) {
-        list.add(postingsEntry);
-        hashMap.put(postingsEntry.docID, postingsEntry);
+    /** Returns where the positions of each posting start. */
+    private int[] starts() {
+        int[] s = starts;
+        if (s == null) {
+            s = new int[size];
+            for (int i = 1; i < size; i++) {
+                s[i] = s[i - 1] + tfs[i - 1];
+            }
+            starts = s;
+        }
+        return s;
     }
 
+    /** A cursor reading the arrays of this list. */
+    private class Cursor implements PostingsCursor {
+        int i = -1;
+        /** Where the positions of the current posting start, or -1 if not known yet. */
+        int start = 0;
+
+        public boolean next() {
+            if (i >= 0 && start >= 0) {
+                start += tfs[i];
+            }
+            return ++i < size;
+        }
+
+        public boolean advance(int target) {
+            if (i >= size) {
+                return false;
+            }
+            if (i >= 0 && docIDs[i] >= target) {
+                return true;
+            }
+            // Gallop to find a range containing the target, then binary search
+            int lo = i + 1, bound = 1;
+            while (lo + bound < size && docIDs[lo + bound] < target) {
+                lo += bound;
+                bound *= 2;
+            }
+            int hi = Math.min(lo + bound, size);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docIDs[mid] < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            i = lo;
+            if (i >= size) {
+                return false;
+            }
+            // Only looked up if the positions are asked for
+            start = -1;
+            return true;
+        }
+
+        public int docID() {
+            return docIDs[i];
+        }
+
+        public int tf() {
+            return tfs[i];
+        }
+
+        public int position(int j) {
+            if (start < 0) {
+                start = starts()[i];
+            }
+            return positions[start + j];
+        }
+
+        public double score() {
+            return PostingsList.this.score(i);
+        }
+    }
+
+    /**
+     * Sorts the postings by descending score. Postings with equal scores
+     * keep their order.
+     */
     public void sortScore() {
-        Collections.sort(list);
+        decode();
+        if (size < 2 || scores == null) {
+            return;
+        }
+        int[] order = new int[size];
+        int[] starts = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            starts[i] = i == 0 ? 0 : starts[i - 1] + tfs[i - 1];
+        }
+        sortByScore(order, new int[size], 0, size);
+
+        int[] newDocIDs = new int[docIDs.length];
+        int[] newTfs = new int[tfs.length];
+        double[] newScores = new double[docIDs.length];
+        int[] newPositions = new int[positions.length];
+        int p = 0;
+        for (int i = 0; i < size; i++) {
+            int o = order[i];
+            newDocIDs[i] = docIDs[o];
+            newTfs[i] = tfs[o];
+            newScores[i] = scores[o];
+            System.arraycopy(positions, starts[o], newPositions, p, tfs[o]);
+            p += tfs[o];
+        }
+        docIDs = newDocIDs;
+        tfs = newTfs;
+        scores = newScores;
+        positions = newPositions;
+        starts = null;
     }
 
-    public void deduplication() {
+    /** Stable merge sort of the indexes in order[from..to) by descending score. */
+    private void sortByScore(int[] order, int[] tmp, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByScore(order, tmp, from, mid);
+        sortByScore(order, tmp, mid, to);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            tmp[k++] = scores[order[j]] > scores[order[i]] ? order[j++] : order[i++];
+        }
+        while (i < mid) {
+            tmp[k++] = order[i++];
+        }
+        while (j < to) {
+            tmp[k++] = order[j++];
+        }
+        System.arraycopy(tmp, from, order, from, to - from);
+    }
 
-        for (int i = 0; i < list.size() - 1; i++) {
-            if (list.get(i).docID == list.get(i + 1).docID) {
-                list.remove(i);
-                i--;
+    /**
+     * Merges two postings lists sorted by docID into a new list. The
+     * positions of a document occurring in both lists are combined.
+     */
+    public static PostingsList merge(PostingsList a, PostingsList b) {
+        PostingsList result = new PostingsList();
+        PostingsCursor ca = a.cursor(), cb = b.cursor();
+        boolean hasA = ca.next(), hasB = cb.next();
+        while (hasA || hasB) {
+            if (!hasB || (hasA && ca.docID() < cb.docID())) {
+                result.addPosting(ca);
+                hasA = ca.next();
+            } else if (!hasA || cb.docID() < ca.docID()) {
+                result.addPosting(cb);
+                hasB = cb.next();
+            } else {
+                int docID = ca.docID();
+                result.addPosting(docID);
+                int i = 0, j = 0;
+                while (i < ca.tf() || j < cb.tf()) {
+                    if (j == cb.tf() || (i < ca.tf() && ca.position(i) < cb.position(j))) {
+                        result.addPosition(docID, ca.position(i++));
+                    } else {
+                        result.addPosition(docID, cb.position(j++));
+                    }
+                }
+                hasA = ca.next();
+                hasB = cb.next();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges any number of postings lists sorted by docID, pairwise
+     * in rounds, so every posting is copied O(log k) times.
+     */
+    public static PostingsList merge(List<PostingsList> lists) {
+        ArrayList<PostingsList> round = new ArrayList<PostingsList>(lists);
+        while (round.size() > 1) {
+            ArrayList<PostingsList> next = new ArrayList<PostingsList>();
+            for (int i = 0; i + 1 < round.size(); i += 2) {
+                next.add(merge(round.get(i), round.get(i + 1)));
+            }
+            if (round.size() % 2 == 1) {
+                next.add(round.get(round.size() - 1));
             }
+            round = next;
         }
+        return round.get(0);
     }
 }
@@ -0,0 +1,150 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that ranked tf-idf queries with pruning (MaxScore) return the
+ * same top k documents and scores as scoring every posting, and compares
+ * the time both take. Pruning is used for every query here, however few
+ * postings it has.
+ *
+ * The queries are read from a file, one per line, or drawn at random
+ * from the vocabulary, mixing frequent and rare terms.
+ *
+ * Usage: java ir.PruningTest -d dir [-p patterns_file] [-k k] [-n queries] [-q queries_file]
+ *        java ir.PruningTest -ni -q queries_file [-k k]
+ */
+public class PruningTest {
+
+    public static void main(String[] args) throws IOException {
+        String dir = null, patterns_file = null, queries_file = null;
+        boolean persistent = false;
+        int k = SearchGUI.MAX_RESULTS, n = 1000;
+        for (int i = 0; i < args.length; i++) {
+            if ("-d".equals(args[i]) && i + 1 < args.length) {
+                dir = args[++i];
+            } else if ("-p".equals(args[i]) && i + 1 < args.length) {
+                patterns_file = args[++i];
+            } else if ("-q".equals(args[i]) && i + 1 < args.length) {
+                queries_file = args[++i];
+            } else if ("-k".equals(args[i]) && i + 1 < args.length) {
+                k = Integer.parseInt(args[++i]);
+            } else if ("-n".equals(args[i]) && i + 1 < args.length) {
+                n = Integer.parseInt(args[++i]);
+            } else if ("-ni".equals(args[i])) {
+                persistent = true;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        if (dir == null && !(persistent && queries_file != null)) {
+            System.err.println("Usage: java ir.PruningTest -d dir [-p patterns_file] [-k k] [-n queries] [-q queries_file]");
+            System.err.println("       java ir.PruningTest -ni -q queries_file [-k k]");
+            return;
+        }
+
+        Index index;
+        if (persistent) {
+            index = new PersistentHashedIndex(true);
+        } else {
+            index = new HashedIndex();
+            new Indexer(index, null, patterns_file).processFiles(new File(dir), true);
+            index.cleanup();
+        }
+
+        ArrayList<String> queries = new ArrayList<String>();
+        if (queries_file != null) {
+            try (BufferedReader in = new BufferedReader(new FileReader(queries_file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        queries.add(line.trim().toLowerCase());
+                    }
+                }
+            }
+        } else {
+            // Terms by descending document frequency
+            HashedIndex hashed = (HashedIndex) index;
+            String[] terms = new String[hashed.size()];
+            int[] termIDs = hashed.termIDs();
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = hashed.terms().term(termIDs[i]);
+            }
+            Arrays.sort(terms, (a, b) -> Integer.compare(hashed.getPostings(b).size(), hashed.getPostings(a).size()));
+            int common = Math.max(1, terms.length / 100);
+            Random random = new Random(42);
+            for (int q = 0; q < n; q++) {
+                StringBuilder query = new StringBuilder();
+                int m = 2 + random.nextInt(3);
+                for (int j = 0; j < m; j++) {
+                    int t = random.nextBoolean() ? random.nextInt(common) : random.nextInt(terms.length);
+                    query.append(j > 0 ? " " : "").append(terms[t]);
+                }
+                queries.add(query.toString());
+            }
+        }
+
+        Searcher searcher = new Searcher(index, null);
+        searcher.pruningMinFraction = 0;
+        int failures = 0;
+        for (NormalizationType normType : NormalizationType.values()) {
+            PostingsList[] expected = new PostingsList[queries.size()];
+            PostingsList[] actual = new PostingsList[queries.size()];
+            long[] elapsed = new long[2];
+            // A few rounds; the first ones warm up the JIT
+            for (int round = 0; round < 3; round++) {
+                for (int pass = 0; pass < 2; pass++) {
+                    searcher.pruning = pass == 1;
+                    PostingsList[] results = pass == 0 ? expected : actual;
+                    long start = System.nanoTime();
+                    for (int q = 0; q < queries.size(); q++) {
+                        results[q] = searcher.search(new Query(queries.get(q)), QueryType.RANKED_QUERY,
+                                RankingType.TF_IDF, normType, k);
+                    }
+                    elapsed[pass] = System.nanoTime() - start;
+                }
+            }
+
+            int different = 0;
+            for (int q = 0; q < queries.size(); q++) {
+                if (!same(expected[q], actual[q])) {
+                    if (different++ < 10) {
+                        System.err.println("Different results for \"" + queries.get(q) + "\"");
+                    }
+                }
+            }
+            System.err.println(String.format("%s: %d queries, k = %d: %d with different results", normType,
+                    queries.size(), k, different));
+            System.err.println(String.format("exhaustive %8.1f ms", elapsed[0] / 1e6));
+            System.err.println(String.format("MaxScore   %8.1f ms", elapsed[1] / 1e6));
+            failures += different;
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Returns true if both results have the same documents and scores, in the same order. */
+    private static boolean same(PostingsList a, PostingsList b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.docID(i) != b.docID(i) || a.score(i) != b.score(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
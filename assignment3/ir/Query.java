@@ -132,7 +132,7 @@ public class Query {
             if (docIsRelevant[i]) {
                 PostingsEntry pe = results.get(i);
                 int docID = pe.docID;
-                String docPath = engine.index.docNames.get(docID);
+                String docPath = engine.index.documents().name(docID);
 
                 if (docPath != null) {
                     try {
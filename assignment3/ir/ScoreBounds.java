@@ -0,0 +1,118 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * Upper bounds on the tf-idf scores of the postings of a list, block by
+ * block. The blocks are the blocks of the skip table of the persistent
+ * index: <code>blockSize</code> postings each, the last one shorter.
+ *
+ * For every block there are two bounds, one for each normalization:
+ * the largest tf / (number of words in the document), which is
+ * multiplied by the idf of the term when the list is searched, and the
+ * largest tf * idf / (Euclidean length of the document). The Euclidean
+ * bounds can only be computed when the index is committed; until then
+ * they are 0.
+ *
+ * The bounds are stored as floats, rounded up.
+ */
+class ScoreBounds {
+
+    /** Number of postings in each block. */
+    final int blockSize;
+
+    /** The docID following each block, the last one Integer.MAX_VALUE. */
+    final int[] ends;
+
+    /** The largest tf / (number of words in the document) of each block. */
+    final float[] words;
+
+    /** The largest tf * idf / (Euclidean length of the document) of each block. */
+    final float[] euclidean;
+
+    /** The largest bounds of all blocks. */
+    private final float maxWords, maxEuclidean;
+
+    ScoreBounds(int blockSize, int[] ends, float[] words, float[] euclidean) {
+        this.blockSize = blockSize;
+        this.ends = ends;
+        this.words = words;
+        this.euclidean = euclidean;
+        float w = 0, e = 0;
+        for (int k = 0; k < ends.length; k++) {
+            w = Math.max(w, words[k]);
+            e = Math.max(e, euclidean[k]);
+        }
+        maxWords = w;
+        maxEuclidean = e;
+    }
+
+    /**
+     * Computes the bounds of the postings in <code>pl</code>, blocked like
+     * the records of <code>PostingsCodec</code>. If <code>euclidean</code>,
+     * the Euclidean lengths of the documents, is null, the Euclidean
+     * bounds are left 0; otherwise the idf of <code>pl</code> must be set.
+     */
+    static ScoreBounds of(PostingsList pl, DocumentTable documents, double[] euclidean) {
+        int df = pl.size();
+        int blockSize = PostingsCodec.blockSize(df);
+        int blocks = df == 0 ? 1 : (df - 1) / blockSize + 1;
+        int[] ends = new int[blocks];
+        float[] wordBounds = new float[blocks];
+        float[] euclideanBounds = new float[blocks];
+        double idf = pl.idf();
+        int i = 0;
+        PostingsCursor c = pl.cursor();
+        while (c.next()) {
+            int k = i / blockSize;
+            if (k > 0 && i % blockSize == 0) {
+                ends[k - 1] = c.docID();
+            }
+            wordBounds[k] = Math.max(wordBounds[k], roundUp((double) c.tf() / documents.length(c.docID())));
+            if (euclidean != null) {
+                euclideanBounds[k] = Math.max(euclideanBounds[k], roundUp(c.tf() * idf / euclidean[c.docID()]));
+            }
+            i++;
+        }
+        ends[blocks - 1] = Integer.MAX_VALUE;
+        return new ScoreBounds(blockSize, ends, wordBounds, euclideanBounds);
+    }
+
+    /** Returns the smallest float that is at least <code>x</code>. */
+    static float roundUp(double x) {
+        float f = (float) x;
+        return f < x ? Math.nextUp(f) : f;
+    }
+
+    /** Number of blocks. */
+    int blocks() {
+        return ends.length;
+    }
+
+    /**
+     * Returns the block holding <code>docID</code>, if the list has it,
+     * searching from block <code>from</code> on.
+     */
+    int block(int docID, int from) {
+        while (ends[from] <= docID) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * The largest score a posting of block k can get for a query term of
+     * weight 1, where <code>idf</code> is the idf of the term.
+     */
+    double max(int k, NormalizationType normType, double idf) {
+        return normType == NormalizationType.EUCLIDEAN ? euclidean[k] : idf * words[k];
+    }
+
+    /** The largest score any posting can get for a query term of weight 1. */
+    double max(NormalizationType normType, double idf) {
+        return normType == NormalizationType.EUCLIDEAN ? maxEuclidean : idf * maxWords;
+    }
+}
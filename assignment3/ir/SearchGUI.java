@@ -71,6 +71,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem("tf-idf");
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem("PageRank");
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem("Combination");
+    JRadioButtonMenuItem hitsItem = new JRadioButtonMenuItem("HITS");
     JRadioButtonMenuItem numberOfWordsItem = new JRadioButtonMenuItem("Number of words");
     JRadioButtonMenuItem euclideanLengthItem = new JRadioButtonMenuItem("Euclidean length");
     ButtonGroup queries = new ButtonGroup();
@@ -110,6 +111,7 @@ public class SearchGUI extends JFrame {
         rankingMenu.add(tfidfItem);
         rankingMenu.add(pagerankItem);
         rankingMenu.add(combinationItem);
+        rankingMenu.add(hitsItem);
         normalizationMenu.add(numberOfWordsItem);
         normalizationMenu.add(euclideanLengthItem);
         queries.add(intersectionItem);
@@ -118,6 +120,7 @@ public class SearchGUI extends JFrame {
         ranking.add(tfidfItem);
         ranking.add(pagerankItem);
         ranking.add(combinationItem);
+        ranking.add(hitsItem);
         normalization.add(numberOfWordsItem);
         normalization.add(euclideanLengthItem);
         intersectionItem.setSelected(true);
@@ -170,7 +173,7 @@ public class SearchGUI extends JFrame {
                 // (this might corrupt the index).
                 long startTime = System.currentTimeMillis();
                 synchronized (engine.indexLock) {
-                    results = engine.searcher.search(query, queryType, rankingType, normType);
+                    results = engine.searcher.search(query, queryType, rankingType, normType, MAX_RESULTS);
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
@@ -256,6 +259,13 @@ public class SearchGUI extends JFrame {
         };
         combinationItem.addActionListener(setCombinationRanking);
 
+        Action setHitsRanking = new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                rankingType = RankingType.HITS;
+            }
+        };
+        hitsItem.addActionListener(setHitsRanking);
+
         Action setNumberOfWordsNormalization = new AbstractAction() {
             public void actionPerformed(ActionEvent e) {
                 normType = NormalizationType.NUMBER_OF_WORDS;
@@ -296,11 +306,20 @@ public class SearchGUI extends JFrame {
      *                            results.
      */
     void displayResults(int maxResultsToDisplay, double elapsedTime) {
-        displayInfoText(String.format("Found %d matching document(s) in %.3f seconds", results.size(), elapsedTime));
-        box = new JCheckBox[maxResultsToDisplay];
+        if (results.size() < maxResultsToDisplay && results.size() < results.hits()) {
+            // Ranked queries only keep the best results, so search again
+            // for more of them
+            int k = Math.max(maxResultsToDisplay, 2 * results.size());
+            synchronized (engine.indexLock) {
+                results = engine.searcher.search(query, queryType, rankingType, normType, k);
+            }
+        }
+        displayInfoText(String.format("Found %s%d matching document(s) in %.3f seconds",
+                results.hitsExact() ? "" : "at least ", results.hits(), elapsedTime));
+        box = new JCheckBox[Math.min(maxResultsToDisplay, results.size())];
         int i;
         for (i = 0; i < results.size() && i < maxResultsToDisplay; i++) {
-            String description = i + ". " + displayableFileName(engine.index.docNames.get(results.get(i).docID));
+            String description = i + ". " + displayableFileName(engine.index.documents().name(results.get(i).docID));
             if (queryType == QueryType.RANKED_QUERY) {
                 description += "   " + String.format("%.5f", results.get(i).score);
             }
@@ -370,7 +389,7 @@ public class SearchGUI extends JFrame {
             resultWindow.add(result);
         }
         // If there were many results, give the user an option to see all of them.
-        if (i < results.size()) {
+        if (i < results.hits()) {
             JPanel actionButtons = new JPanel();
             actionButtons.setLayout(new BoxLayout(actionButtons, BoxLayout.X_AXIS));
             actionButtons.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -388,12 +407,13 @@ public class SearchGUI extends JFrame {
 
             actionButtons.add(Box.createRigidArea(new Dimension(5, 0)));
 
-            JButton displayAllBut = new JButton("Display all " + results.size() + " results");
+            JButton displayAllBut = new JButton(
+                    results.hitsExact() ? "Display all " + results.hits() + " results" : "Display all results");
             displayAllBut.setFont(resultFont);
             actionButtons.add(displayAllBut);
             Action displayAll = new AbstractAction() {
                 public void actionPerformed(ActionEvent e) {
-                    displayResults(results.size(), elapsedTime);
+                    displayResults(results.hitsExact() ? results.hits() : Integer.MAX_VALUE, elapsedTime);
                 }
             };
             displayAllBut.addActionListener(displayAll);
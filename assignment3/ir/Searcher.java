@@ -7,15 +7,9 @@
 
 package ir;
 
-import java.io.BufferedReader;
-
-import java.io.FileReader;
-import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -32,150 +26,342 @@ public class Searcher {
     /** The k-gram index to be searched by this Searcher */
     KGramIndex kgIndex;
 
-    // name , score of document
-    HashMap<String, Double> docPageRanks = new HashMap<>();
+    /** The PageRank scores of the documents, set by the engine. */
+    PageRankScores pageRanks = new PageRankScores();
+
+    /** Ranks documents by HITS, or null if the engine has no link graph. */
+    HITSRanker hitsRanker;
+
+    /**
+     * If true, ranked tf-idf queries for the k best documents skip the
+     * documents that cannot get into the top k (see <code>maxScore</code>).
+     */
+    boolean pruning = true;
+
+    /**
+     * Documents are only skipped if the postings lists of the query terms
+     * add up to at least this fraction of the documents. Shorter lists
+     * are faster to score in full than one document at a time (see
+     * PruningTest).
+     */
+    double pruningMinFraction = 0.5;
+
+    /**
+     * Score bounds are multiplied by this, so that rounding errors can
+     * never make a bound smaller than the score it bounds.
+     */
+    private static final double BOUND_SLACK = 1 + 1e-9;
 
     /** Constructor */
     public Searcher(Index index, KGramIndex kgIndex) {
         this.index = index;
         this.kgIndex = kgIndex;
-        loadPageRanks("/Users/ahmed/Desktop/DD2477/assignment2/pagerank/pagerank_scores.txt");
     }
 
     private PostingsList intersect(PostingsList pos1, PostingsList pos2) {
 
         PostingsList resultPostings = new PostingsList();
 
-        ArrayList<PostingsEntry> entries1 = pos1.getPostingEntry();
-        ArrayList<PostingsEntry> entries2 = pos2.getPostingEntry();
-
-        int pointer1 = 0;
-        int pointer2 = 0;
+        PostingsCursor c1 = pos1.cursor();
+        PostingsCursor c2 = pos2.cursor();
 
-        while (pointer1 < entries1.size() && pointer2 < entries2.size()) {
-            PostingsEntry entry1 = entries1.get(pointer1);
-            PostingsEntry entry2 = entries2.get(pointer2);
+        // Leapfrog: each cursor jumps to the docID of the other one
+        boolean has1 = c1.next();
+        boolean has2 = has1 && c2.advance(c1.docID());
 
-            if (entry1.docID == entry2.docID) {
+        while (has1 && has2) {
+            if (c1.docID() == c2.docID()) {
                 // If docIDs match, add to the result
-                resultPostings.addPostingEntry(entry1);
-                pointer1++;
-                pointer2++;
-            } else if (entry1.docID < entry2.docID) {
-                // If docID in postings1 is smaller, move pointer1
-                pointer1++;
+                resultPostings.addPosting(c1.docID());
+                has1 = c1.next();
+                has2 = has1 && c2.advance(c1.docID());
+            } else if (c1.docID() < c2.docID()) {
+                has1 = c1.advance(c2.docID());
             } else {
-                // If docID in postings2 is smaller, move pointer2
-                pointer2++;
+                has2 = c2.advance(c1.docID());
             }
         }
 
         return resultPostings;
     }
 
-    private PostingsList intersectPostingsWithPositions(PostingsList postings1, PostingsList postings2) {
-        // Implement the intersection logic for postings with positions
-        // Iterate over the postings and keep only those that appear in both lists with
-        // the correct positions
-
+    /**
+     * Intersects two postings lists, keeping the documents where a position
+     * of the first list minus <code>offset1</code> equals a position of the
+     * second list minus <code>offset2</code>. The result contains these
+     * differences, i.e. the start positions of the phrase.
+     */
+    private PostingsList intersectPostingsWithPositions(PostingsList postings1, int offset1,
+            PostingsList postings2, int offset2) {
         PostingsList resultPostings = new PostingsList();
 
-        ArrayList<PostingsEntry> entries1 = postings1.getPostingEntry();
-        ArrayList<PostingsEntry> entries2 = postings2.getPostingEntry();
-
-        int pointer1 = 0;
-        int pointer2 = 0;
-
-        while (pointer1 < entries1.size() && pointer2 < entries2.size()) {
-            PostingsEntry entry1 = entries1.get(pointer1);
-            PostingsEntry entry2 = entries2.get(pointer2);
-
-            if (entry1.docID == entry2.docID) {
-                // If docIDs match, check for phrase positions
-                ArrayList<Integer> positions1 = entry1.offsetsList;
-                ArrayList<Integer> positions2 = entry2.offsetsList;
+        PostingsCursor c1 = postings1.cursor();
+        PostingsCursor c2 = postings2.cursor();
 
-                ArrayList<Integer> phrasePositions = findPhrasePositions(positions1, positions2);
+        boolean has1 = c1.next();
+        boolean has2 = has1 && c2.advance(c1.docID());
 
-                if (!phrasePositions.isEmpty()) {
-                    // If phrase positions found, add to the result
-                    PostingsEntry resultEntry = new PostingsEntry(entry1.docID);
-                    resultEntry.offsetsList = phrasePositions;
-                    resultPostings.addPostingEntry(resultEntry);
-                }
+        while (has1 && has2) {
+            if (c1.docID() == c2.docID()) {
+                // If docIDs match, check for phrase positions; they are
+                // added to the result if found
+                findPhrasePositions(c1, offset1, c2, offset2, resultPostings);
 
-                pointer1++;
-                pointer2++;
-            } else if (entry1.docID < entry2.docID) {
-                pointer1++;
+                has1 = c1.next();
+                has2 = has1 && c2.advance(c1.docID());
+            } else if (c1.docID() < c2.docID()) {
+                has1 = c1.advance(c2.docID());
             } else {
-                pointer2++;
+                has2 = c2.advance(c1.docID());
             }
         }
 
         return resultPostings;
     }
 
-    private ArrayList<Integer> findPhrasePositions(ArrayList<Integer> positions1, ArrayList<Integer> positions2) {
+    private void findPhrasePositions(PostingsCursor c1, int offset1, PostingsCursor c2, int offset2,
+            PostingsList result) {
 
-        ArrayList<Integer> result = new ArrayList<>();
         int i = 0;
         int j = 0;
 
-        while (i < positions1.size() && j < positions2.size()) {
-            int position1 = positions1.get(i);
-            int position2 = positions2.get(j);
+        while (i < c1.tf() && j < c2.tf()) {
+            int start1 = c1.position(i) - offset1;
+            int start2 = c2.position(j) - offset2;
 
-            if (position2 - position1 == 1) {
-                // If positions are adjacent, consider it as part of the phrase
-                result.add(position2);
+            if (start1 == start2) {
+                // Both terms are where the phrase starting here needs them
+                result.addPosition(c1.docID(), start1);
                 i++;
                 j++;
-            } else if (position1 < position2) {
+            } else if (start1 < start2) {
                 i++;
             } else {
                 j++;
             }
         }
+    }
 
-        return result;
+    /**
+     * Returns the indexes of the query terms ordered by ascending document
+     * frequency, or null if some term is not in the index.
+     */
+    private Integer[] termsByFrequency(PostingsList[] postings) {
+        Integer[] order = new Integer[postings.length];
+        for (int i = 0; i < postings.length; i++) {
+            if (postings[i] == null) {
+                return null;
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(postings[a].size(), postings[b].size()));
+        return order;
     }
 
-    private PostingsList scoreSorting(double termWeight, PostingsList pl, int N) {
-        int df_t = pl.size(); // Documents in the corpus which contain t
-        double idf_t = Math.log((double) N / df_t); // Calculate once outside the loop
+    /**
+     * Returns the idf of the term of <code>pl</code>, which the index
+     * computed when it was committed.
+     */
+    private static double idf(PostingsList pl, int N) {
+        return pl.idf() >= 0 ? pl.idf() : Math.log((double) N / pl.size());
+    }
 
-        for (int i = 0; i < pl.size(); i++) {
-            int tf_dt = pl.get(i).offsetsList.size(); // Occurrences of t in d
-            int len_d = index.docLengths.get(pl.get(i).docID); // Words in d
-            double tf_idf;
+    /**
+     * Adds the tf-idf scores of the postings of <code>pl</code> to
+     * <code>acc</code>, normalized by the document lengths <code>norms</code>.
+     */
+    private void scorePostings(double termWeight, PostingsList pl, int N, double[] norms, Accumulator acc) {
+        double idf_t = idf(pl, N);
 
-            tf_idf = termWeight * (tf_dt * idf_t) / len_d; // Apply length normalization
+        PostingsCursor c = pl.cursor();
+        while (c.next()) {
+            int tf_dt = c.tf(); // Occurrences of t in d
+            double len_d = norms[c.docID()]; // Length of d
+            double tf_idf = tfIdf(termWeight, tf_dt, idf_t, len_d);
 
-            pl.get(i).score = tf_idf;
+            acc.add(c.docID(), tf_idf);
         }
 
-        Collections.sort(pl.getPostingEntry()); // Ensure sorting by score
-        return pl;
+    }
 
+    private static double tfIdf(double termWeight, int tf_dt, double idf_t, double len_d) {
+        return termWeight * (tf_dt * idf_t) / len_d; // Apply length normalization
     }
 
-    private void loadPageRanks(String fileName) {
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileName));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("=");
-                if (parts.length == 2) {
-                    String docName = parts[0]; // Use document name as the key
-                    double score = Double.parseDouble(parts[1]);
-                    docPageRanks.put(docName, score);
+    /**
+     * Returns the k best documents for the query terms by tf-idf, with the
+     * MaxScore algorithm. The postings lists are traversed in parallel, one
+     * document at a time, and every list has an upper bound on the score it
+     * can add to a document. The lists are sorted by their bounds; once the
+     * bounds of the first lists add up to no more than the score of the kth
+     * best document so far, a document in none of the other lists cannot
+     * get into the top k. These first lists are then no longer traversed,
+     * only searched for the documents of the other lists.
+     *
+     * The bounds of the blocks of postings (see ScoreBounds) are tighter
+     * than the bounds of the whole lists: a run of documents whose blocks
+     * cannot beat the kth best score is skipped at once, and a document is
+     * dropped as soon as its score so far and the bounds of the blocks of
+     * the remaining lists cannot beat it.
+     *
+     * The result has the same documents and scores as scoring every
+     * posting, but only a lower bound on the number of matching documents.
+     */
+    private PostingsList maxScore(PostingsList[] postings, double[] weights, int N, NormalizationType normType,
+            int k) {
+        double[] norms = index.norms().lengths(normType);
+        int m = postings.length;
+        PostingsCursor[] cursors = new PostingsCursor[m];
+        // The current docID of every list, Integer.MAX_VALUE past its end
+        int[] doc = new int[m];
+        double[] idf = new double[m];
+        ScoreBounds[] bounds = new ScoreBounds[m];
+        double[] bound = new double[m];
+        // The block of every list holding its current docID, and its bound
+        int[] block = new int[m];
+        double[] blockBound = new double[m];
+        // The scores of the terms in the current document
+        double[] termScore = new double[m];
+        // The terms with postings, by ascending bound
+        int[] lists = new int[m];
+        int n = 0;
+        int maxDf = 0;
+        for (int j = 0; j < m; j++) {
+            if (postings[j] == null) {
+                continue;
+            }
+            idf[j] = idf(postings[j], N);
+            bounds[j] = postings[j].bounds();
+            bound[j] = weights[j] * bounds[j].max(normType, idf[j]) * BOUND_SLACK;
+            cursors[j] = postings[j].cursor();
+            doc[j] = cursors[j].next() ? cursors[j].docID() : Integer.MAX_VALUE;
+            int b = n++ - 1;
+            for (; b >= 0 && bound[lists[b]] > bound[j]; b--) {
+                lists[b + 1] = lists[b];
+            }
+            lists[b + 1] = j;
+            maxDf = Math.max(maxDf, postings[j].size());
+        }
+        // The sum of the bounds of lists[0..i]
+        double[] upTo = new double[n];
+        for (int i = 0; i < n; i++) {
+            upTo[i] = (i > 0 ? upTo[i - 1] : 0) + bound[lists[i]];
+        }
+
+        TopKHeap heap = new TopKHeap(k);
+        double threshold = heap.threshold();
+        // lists[essential..n) are traversed, the lists before are searched
+        int essential = 0;
+        // Until regionEnd, only the lists that were at the start of the
+        // region have documents, all in their current blocks
+        int regionEnd = -1;
+        double regionBound = 0;
+        boolean skipped = false;
+        while (true) {
+            double searched = essential > 0 ? upTo[essential - 1] : 0;
+            int d = Integer.MAX_VALUE;
+            for (int i = essential; i < n; i++) {
+                d = Math.min(d, doc[lists[i]]);
+            }
+            if (d == Integer.MAX_VALUE) {
+                break;
+            }
+
+            if (d >= regionEnd) {
+                regionEnd = Integer.MAX_VALUE;
+                regionBound = searched;
+                for (int i = essential; i < n; i++) {
+                    int j = lists[i];
+                    if (doc[j] > d) {
+                        regionEnd = Math.min(regionEnd, doc[j]);
+                    } else {
+                        block[j] = bounds[j].block(d, block[j]);
+                        blockBound[j] = weights[j] * bounds[j].max(block[j], normType, idf[j]) * BOUND_SLACK;
+                        regionBound += blockBound[j];
+                        regionEnd = Math.min(regionEnd, bounds[j].ends[block[j]]);
+                    }
+                }
+            }
+            if (regionBound <= threshold) {
+                // No document of the region can get into the top k
+                skipped = true;
+                for (int i = essential; i < n; i++) {
+                    int j = lists[i];
+                    if (doc[j] < regionEnd) {
+                        boolean more = regionEnd < Integer.MAX_VALUE && cursors[j].advance(regionEnd);
+                        doc[j] = more ? cursors[j].docID() : Integer.MAX_VALUE;
+                    }
+                }
+                continue;
+            }
+
+            double candidateBound = searched;
+            for (int i = essential; i < n; i++) {
+                if (doc[lists[i]] == d) {
+                    candidateBound += blockBound[lists[i]];
+                }
+            }
+            double len_d = norms[d];
+            double score = 0;
+            for (int i = essential; i < n; i++) {
+                int j = lists[i];
+                termScore[j] = 0;
+                if (doc[j] == d) {
+                    if (candidateBound > threshold) {
+                        termScore[j] = tfIdf(weights[j], cursors[j].tf(), idf[j], len_d);
+                        score += termScore[j];
+                    }
+                    doc[j] = cursors[j].next() ? cursors[j].docID() : Integer.MAX_VALUE;
+                }
+            }
+            boolean dropped = candidateBound <= threshold;
+            for (int i = essential - 1; i >= 0 && !dropped; i--) {
+                int j = lists[i];
+                block[j] = bounds[j].block(d, block[j]);
+                double rest = i > 0 ? upTo[i - 1] : 0;
+                if ((score + weights[j] * bounds[j].max(block[j], normType, idf[j])) * BOUND_SLACK
+                        + rest <= threshold) {
+                    dropped = true;
+                    break;
                 }
+                if (doc[j] < d) {
+                    doc[j] = cursors[j].advance(d) ? cursors[j].docID() : Integer.MAX_VALUE;
+                }
+                termScore[j] = doc[j] == d ? tfIdf(weights[j], cursors[j].tf(), idf[j], len_d) : 0;
+                score += termScore[j];
+            }
+            if (dropped) {
+                skipped = true;
+                continue;
+            }
+
+            // Add up the terms in query order, like scorePostings does
+            score = 0;
+            for (int j = 0; j < m; j++) {
+                score += termScore[j];
+            }
+            heap.add(d, score);
+            threshold = heap.threshold();
+            while (essential < n && upTo[essential] <= threshold) {
+                essential++;
+                skipped = true;
+                regionEnd = -1;
             }
-            reader.close();
-        } catch (IOException e) {
-            System.err.println("Error reading PageRank file: " + e.getMessage());
         }
+
+        PostingsList result = heap.toPostingsList();
+        if (skipped) {
+            result.setHits(Math.max(maxDf, heap.offered() + 1), false);
+        }
+        return result;
+    }
+
+    /** Returns the k best documents of <code>acc</code>, best first, and clears it. */
+    private PostingsList topK(Accumulator acc, int k) {
+        TopKHeap heap = new TopKHeap(k);
+        acc.addTo(heap);
+        acc.clear();
+        return heap.toPostingsList();
     }
 
     /**
@@ -185,11 +371,38 @@ public class Searcher {
      */
     public PostingsList search(Query query, QueryType queryType, RankingType rankingType,
             NormalizationType normType) {
+        return search(query, queryType, rankingType, normType, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the index for postings matching the query. Ranked queries
+     * only return the <code>k</code> best documents, sorted by score; the
+     * number of matching documents is given by <code>hits()</code> of the
+     * result.
+     * 
+     * @return A postings list representing the result of the query.
+     */
+    public PostingsList search(Query query, QueryType queryType, RankingType rankingType,
+            NormalizationType normType, int k) {
         if (query.queryterm.size() >= 1 && (queryType == QueryType.RANKED_QUERY)
+                && (rankingType == RankingType.HITS)) {
+            if (hitsRanker == null) {
+                System.err.println("HITS ranking needs a link graph (-g links_file -gt titles_file)");
+                return null;
+            }
+            // The root set is the documents containing any of the terms
+            PostingsList[] postings = new PostingsList[query.queryterm.size()];
+            for (int i = 0; i < postings.length; i++) {
+                postings[i] = index.getPostings(query.queryterm.get(i).term);
+            }
+            return hitsRanker.rank(postings, k);
+        }
+
+        else if (query.queryterm.size() >= 1 && (queryType == QueryType.RANKED_QUERY)
                 && (rankingType == RankingType.COMBINATION)) {
-            HashSet<Integer> processedDocIDs = new HashSet<>();
-            int N = Index.docLengths.size();
-            PostingsList resultPostingsList = new PostingsList();
+            int N = index.documents().size();
+            double[] norms = index.norms().lengths(normType);
+            Accumulator acc = Accumulator.forThread(index.documents().capacity());
 
             // Iterate through each query term
             for (QueryTerm qterm : query.queryterm) {
@@ -197,79 +410,56 @@ public class Searcher {
                 PostingsList termPostings = index.getPostings(term);
 
                 if (termPostings != null) {
-                    int df_t = termPostings.size();
-                    double idf_t = Math.log((double) N / df_t);
-
-                    for (PostingsEntry pe : termPostings.getPostingEntry()) {
-                        if (!processedDocIDs.contains(pe.docID)) {
-                            processedDocIDs.add(pe.docID);
-
-                            String docName = index.docNames.get(pe.docID);
-                            int lastSlashIndex = docName.lastIndexOf('/');
-                            if (lastSlashIndex != -1) {
-                                String fileName = docName.substring(lastSlashIndex + 1);
-                                Double pageRankScore = docPageRanks.get(fileName);
-                                int tf_dt = pe.offsetsList.size();
-                                int len_d = index.docLengths.get(pe.docID);
-                                double tfIdfScore = (tf_dt * idf_t) / len_d;
-                                double alpha = 0.01;
-                                double combinedScore = alpha * tfIdfScore + (1 - alpha) * pageRankScore;
-                                PostingsEntry combinedEntry = resultPostingsList.searchEntry(pe.docID);
-                                if (combinedEntry != null) {
-                                    combinedEntry.score += combinedScore;
-                                } else {
-                                    resultPostingsList.addPostingEntry(new PostingsEntry(pe.docID, combinedScore));
-                                }
-                            }
+                    double idf_t = idf(termPostings, N);
+
+                    PostingsCursor pe = termPostings.cursor();
+                    while (pe.next()) {
+                        // A document is scored by the first term it contains
+                        if (!acc.contains(pe.docID())) {
+                            // Documents without a PageRank score are ranked by tf-idf only
+                            double pageRankScore = pageRanks.has(pe.docID()) ? pageRanks.score(pe.docID()) : 0;
+                            int tf_dt = pe.tf();
+                            double len_d = norms[pe.docID()];
+                            double tfIdfScore = (tf_dt * idf_t) / len_d;
+                            double alpha = 0.01;
+                            double combinedScore = alpha * tfIdfScore + (1 - alpha) * pageRankScore;
+                            acc.add(pe.docID(), combinedScore);
                         }
 
                     }
                 }
             }
 
-            Collections.sort(resultPostingsList.getPostingEntry());
-
-            return resultPostingsList;
+            return topK(acc, k);
         }
 
         else if (query.queryterm.size() > 1 && (queryType == QueryType.RANKED_QUERY)
                 && (rankingType == RankingType.PAGERANK)) {
-            PostingsList resultPostingsList = new PostingsList();
-            HashSet<Integer> processedDocIDs = new HashSet<>();
+            Accumulator acc = Accumulator.forThread(index.documents().capacity());
             // int adjusmentTerm = 2000;
             for (QueryTerm qterm : query.queryterm) {
                 String term = qterm.term;
                 PostingsList termPostings = index.getPostings(term);
 
                 if (termPostings != null) {
-                    for (PostingsEntry pe : termPostings.getPostingEntry()) {
-                        if (!processedDocIDs.contains(pe.docID)) {
-                            processedDocIDs.add(pe.docID);
-                            String docName = index.docNames.get(pe.docID);
-                            int lastSlashIndex = docName.lastIndexOf('/');
-                            if (lastSlashIndex != -1) {
-                                String fileName = docName.substring(lastSlashIndex + 1);
-                                Double pageRankScore = docPageRanks.get(fileName);
-                                if (pageRankScore != null) {
-                                    resultPostingsList.addPostingEntry(new PostingsEntry(pe.docID, pageRankScore));
-                                }
-                            }
+                    PostingsCursor pe = termPostings.cursor();
+                    while (pe.next()) {
+                        if (!acc.contains(pe.docID()) && pageRanks.has(pe.docID())) {
+                            acc.add(pe.docID(), pageRanks.score(pe.docID()));
                         }
                     }
                 }
             }
 
-            // Sort by PageRank score
-            Collections.sort(resultPostingsList.getPostingEntry());
-
-            return resultPostingsList;
+            // The best documents by PageRank score
+            return topK(acc, k);
         }
 
         // 2.2
         else if (query.queryterm.size() > 1 && (queryType == QueryType.RANKED_QUERY)
                 && (rankingType == RankingType.TF_IDF)) {
 
-            int N = Index.docLengths.size();
+            int N = index.documents().size();
             String[] terms = new String[query.queryterm.size()];
             double[] termsWight = new double[query.queryterm.size()];
 
@@ -278,27 +468,36 @@ public class Searcher {
                 termsWight[i] = query.queryterm.get(i).weight;
             }
 
-            PostingsList resultPostingsList = new PostingsList();
-
-            for (int j = 0; j < query.queryterm.size(); j++) {
-                PostingsList wordPostingList = scoreSorting(termsWight[j],
-                        index.getPostings(terms[j]), N);
-                // System.err.println(terms[j] + " " + termsWight[j]);
-
-                for (PostingsEntry pe : wordPostingList.getPostingEntry()) {
-                    PostingsEntry entry = resultPostingsList.searchEntry(pe.docID);
-                    if (entry != null) {
-                        entry.score += pe.score;
+            if (pruning && k < Integer.MAX_VALUE) {
+                boolean bounded = true;
+                long total = 0;
+                PostingsList[] postings = new PostingsList[terms.length];
+                for (int j = 0; j < terms.length; j++) {
+                    postings[j] = index.getPostings(terms[j]);
+                    bounded &= termsWight[j] > 0 && (postings[j] == null || postings[j].bounds() != null);
+                    total += postings[j] == null ? 0 : postings[j].size();
+                }
+                // The bounds only hold for positive query term weights, and
+                // only a committed index has them
+                if (bounded && total >= pruningMinFraction * N) {
+                    return maxScore(postings, termsWight, N, normType, k);
+                }
+            }
 
-                    } else {
-                        resultPostingsList.addPostingEntry(new PostingsEntry(pe.docID, pe.score));
+            // Term at a time: the scores of every term are added up in the
+            // accumulator
+            Accumulator acc = Accumulator.forThread(index.documents().capacity());
 
-                    }
+            for (int j = 0; j < query.queryterm.size(); j++) {
+                PostingsList termPostings = index.getPostings(terms[j]);
+                if (termPostings == null) {
+                    continue;
                 }
+                scorePostings(termsWight[j], termPostings, N, index.norms().lengths(normType), acc);
+                // System.err.println(terms[j] + " " + termsWight[j]);
             }
 
-            Collections.sort(resultPostingsList.getPostingEntry());
-            return resultPostingsList;
+            return topK(acc, k);
         }
 
         // for assignmnet 2.1
@@ -308,8 +507,14 @@ public class Searcher {
             String token = query.queryterm.get(0).term;
             PostingsList resultPostingsList = index.getPostings(token);
             // #documents in the corpus
-            int N = index.docLengths.size();
-            resultPostingsList = scoreSorting(query.queryterm.get(0).weight, resultPostingsList, N);
+            int N = index.documents().size();
+            if (resultPostingsList == null) {
+                return null;
+            }
+            Accumulator acc = Accumulator.forThread(index.documents().capacity());
+            scorePostings(query.queryterm.get(0).weight, resultPostingsList, N, index.norms().lengths(normType),
+                    acc);
+            resultPostingsList = topK(acc, k);
             // double idf = java.lang.Math.log(N / resultPostingsList.size());
             // DecimalFormat df = new DecimalFormat("#.####");
 
@@ -324,14 +529,19 @@ public class Searcher {
             for (int i = 0; i < query.queryterm.size(); i++) {
 
                 terms[i] = query.queryterm.get(i).term;
-                postingsListArray[i] = new PostingsList();
                 postingsListArray[i] = index.getPostings(terms[i]);
 
             }
-            PostingsList resultPostings = index.getPostings(terms[0]);
+            // Start with the rarest term, so that the intermediate results
+            // stay small and the longer lists are mostly skipped
+            Integer[] order = termsByFrequency(postingsListArray);
+            if (order == null) {
+                return null;
+            }
+            PostingsList resultPostings = postingsListArray[order[0]];
 
             for (int i = 1; i < terms.length; i++) {
-                PostingsList termPostings = index.getPostings(terms[i]);
+                PostingsList termPostings = postingsListArray[order[i]];
                 resultPostings = intersect(resultPostings, termPostings);
             }
 
@@ -342,18 +552,30 @@ public class Searcher {
         // for assignment 1.4
         else if (query.queryterm.size() > 1 && (queryType == QueryType.PHRASE_QUERY)) {
             String[] terms = new String[query.queryterm.size()];
+            PostingsList[] postingsListArray = new PostingsList[query.queryterm.size()];
 
             // Iterate over each query term
             for (int i = 0; i < query.queryterm.size(); i++) {
                 terms[i] = query.queryterm.get(i).term;
+                postingsListArray[i] = index.getPostings(terms[i]);
             }
 
-            PostingsList resultPostings = index.getPostings(terms[0]);
+            // The terms are intersected from the rarest one. The ith term of
+            // the phrase must be at (start position of the phrase + i), so
+            // the intermediate results hold the possible start positions.
+            Integer[] order = termsByFrequency(postingsListArray);
+            if (order == null) {
+                return null;
+            }
+            PostingsList resultPostings = postingsListArray[order[0]];
+            int resultOffset = order[0];
 
             // Iterate over the remaining terms
             for (int i = 1; i < terms.length; i++) {
-                PostingsList termPostings = index.getPostings(terms[i]);
-                resultPostings = intersectPostingsWithPositions(resultPostings, termPostings);
+                PostingsList termPostings = postingsListArray[order[i]];
+                resultPostings = intersectPostingsWithPositions(resultPostings, resultOffset, termPostings,
+                        order[i]);
+                resultOffset = 0;
             }
 
             return resultPostings;
@@ -0,0 +1,121 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Simple-8b encoding: as many integers as possible are packed into one
+ * 64-bit word. The top 4 bits of the word (the selector) tell how many
+ * integers the remaining 60 bits hold and how many bits each one uses.
+ * Selectors 0 and 1 encode runs of 240 and 120 ones.
+ */
+public class Simple8bCodec extends PostingsCodec {
+
+    /** Number of integers in a word, by selector. */
+    static final int[] COUNT = { 240, 120, 60, 30, 20, 15, 12, 10, 8, 7, 6, 5, 4, 3, 2, 1 };
+
+    /** Number of bits per integer, by selector. */
+    static final int[] BITS = { 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 15, 20, 30, 60 };
+
+    void encode(int[] values, int n, ByteArrayOutputStream out) {
+        int i = 0;
+        while (i < n) {
+            int selector = 0;
+            for (; selector < COUNT.length - 1; selector++) {
+                if (fits(values, i, n, selector)) {
+                    break;
+                }
+            }
+            long word = (long) selector << 60;
+            int count = Math.min(COUNT[selector], n - i);
+            if (selector > 1) {
+                for (int k = 0; k < count; k++) {
+                    word |= (values[i + k] & 0xffffffffL) << (k * BITS[selector]);
+                }
+            }
+            i += count;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (word >>> shift));
+            }
+        }
+    }
+
+    /**
+     * Returns true if the values starting at <code>i</code> can be packed
+     * into one word with the given selector. The last word may be partly
+     * filled, since the decoder knows how many values to read.
+     */
+    private boolean fits(int[] values, int i, int n, int selector) {
+        int count = Math.min(COUNT[selector], n - i);
+        for (int k = 0; k < count; k++) {
+            int v = values[i + k];
+            if (selector <= 1 ? v != 1 : (BITS[selector] < 32 && (v >>> BITS[selector]) != 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    IntDecoder decoder(ByteBuffer buf, int ptr) {
+        return new Decoder(buf, ptr);
+    }
+
+    CompressionType type() {
+        return CompressionType.SIMPLE8B;
+    }
+
+    private static class Decoder implements IntDecoder {
+        ByteBuffer buf;
+        int ptr;
+        long word;
+        int left = 0;
+        int bits;
+        int mask;
+
+        Decoder(ByteBuffer buf, int ptr) {
+            this.buf = buf;
+            this.ptr = ptr;
+        }
+
+        private void nextWord() {
+            word = buf.getLong(ptr);
+            ptr += 8;
+            int selector = (int) (word >>> 60);
+            left = COUNT[selector];
+            bits = BITS[selector];
+            mask = bits == 0 ? 0 : (int) ((1L << bits) - 1);
+        }
+
+        public int next() {
+            if (left == 0) {
+                nextWord();
+            }
+            left--;
+            if (bits == 0) {
+                return 1;
+            }
+            int v = (int) word & mask;
+            word >>>= bits;
+            return v;
+        }
+
+        public void skip(int n) {
+            while (n > 0) {
+                if (left == 0) {
+                    nextWord();
+                }
+                int k = Math.min(n, left);
+                if (bits > 0) {
+                    word >>>= k * bits;
+                }
+                left -= k;
+                n -= k;
+            }
+        }
+    }
+}
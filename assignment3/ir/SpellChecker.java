@@ -7,8 +7,38 @@
 
 package ir;
 
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 
+/**
+ * Suggests corrections of the misspelled terms of a query.
+ *
+ * The candidates for a term not in the index are the terms that share
+ * k-grams with it. They are found by merging the k-gram postings of the
+ * term and counting how many of its k-grams every term ID occurs in; a
+ * term must share at least JACCARD_THRESHOLD times as many k-grams as
+ * the misspelled term has to pass the threshold, so shorter runs of term
+ * IDs are skipped over (the MergeSkip algorithm). The remaining
+ * candidates are filtered by their Jaccard coefficient and their length
+ * before their edit distance is computed (see EditDistance).
+ *
+ * With the BKTREE backend the candidates are instead all terms within
+ * MAX_EDIT_DISTANCE, found in a BK-tree of all terms (see BKTree).
+ *
+ * A candidate is scored by the log of its document frequency divided by
+ * one plus its edit distance.
+ *
+ * The corrections of a query of several terms are combined into phrases
+ * by a beam search, which also scores a phrase by the number of
+ * documents that contain all its terms (see mergeCorrections).
+ */
 public class SpellChecker {
     /** The regular inverted index to be used by the spell checker */
     Index index;
@@ -16,6 +46,12 @@ public class SpellChecker {
     /** K-gram index to be used by the spell checker */
     KGramIndex kgIndex;
 
+    /** How the candidate corrections of a term are found */
+    SpellingBackend backend = SpellingBackend.KGRAM;
+
+    /** The BK-tree of the terms, once the BKTREE backend is used */
+    BKTree bkTree;
+
     /**
      * The auxiliary class for containing the value of your ranking function for a
      * token
@@ -56,11 +92,60 @@ public class SpellChecker {
      */
     private static final int MAX_EDIT_DISTANCE = 2;
 
+    /**
+     * Number of phrases kept after each term of the query, if more than
+     * the number of corrections asked for.
+     */
+    private static final int BEAM_WIDTH = 20;
+
+    /**
+     * The weight of the log of the number of documents containing all
+     * terms of a phrase, added to the scores of its terms.
+     */
+    private static final double COOCCURRENCE_WEIGHT = 1.0;
+
+    /**
+     * Milliseconds that merging the corrections of a query may spend on
+     * intersecting postings; after that the number of documents of a
+     * phrase is estimated as if its terms occurred independently.
+     */
+    private static final long INTERSECTION_BUDGET = 5;
+
+    /** Number of intersections of postings kept in the cache. */
+    private static final int CACHE_SIZE = 1024;
+
+    /** The docIDs of the documents containing all terms of a phrase, by phrase; least recently used first. */
+    private LinkedHashMap<String, int[]> intersections = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     public SpellChecker(Index index, KGramIndex kgIndex) {
         this.index = index;
         this.kgIndex = kgIndex;
     }
 
+    /**
+     * Chooses how candidate corrections are found. The BK-tree is built
+     * the first time the BKTREE backend is chosen, and brought up to date
+     * with the terms of the index every time it is chosen.
+     */
+    public void setBackend(SpellingBackend backend) {
+        this.backend = backend;
+        if (backend == SpellingBackend.BKTREE) {
+            if (bkTree == null) {
+                bkTree = new BKTree(index.terms());
+            }
+            long startTime = System.currentTimeMillis();
+            bkTree.insertNewTerms();
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            if (elapsedTime > 1000) {
+                System.err.println(String.format("BK-tree built in %.1f seconds", elapsedTime / 1000.0));
+            }
+        }
+    }
+
     /**
      * Computes the Jaccard coefficient for two sets A and B, where the size of set
      * A is
@@ -68,10 +153,7 @@ public class SpellChecker {
      * of the two sets contains <code>intersection</code> elements.
      */
     private double jaccard(int szA, int szB, int intersection) {
-        //
-        // YOUR CODE HERE
-        //
-        return 0;
+        return (double) intersection / (szA + szB - intersection);
     }
 
     /**
@@ -80,25 +162,253 @@ public class SpellChecker {
      * => insert (cost 1)
      * => delete (cost 1)
      * => substitute (cost 2)
+     *
+     * Any distance larger than MAX_EDIT_DISTANCE is returned as
+     * MAX_EDIT_DISTANCE + 1. See EditDistance, which computes it
+     * bit-parallel.
      */
     private int editDistance(String s1, String s2) {
-        //
-        // YOUR CODE HERE
-        //
-
-        return -1;
+        return new EditDistance(s1).distance(s2, MAX_EDIT_DISTANCE);
     }
 
     /**
      * Checks spelling of all terms in <code>query</code> and returns up to
-     * <code>limit</code> ranked suggestions for spelling correction.
+     * <code>limit</code> ranked suggestions for spelling correction. A
+     * term without any candidate is kept as it is. Returns null if every
+     * term is in the index, or if no term missing from it has a candidate.
      */
     public String[] check(Query query, int limit) {
-        //
-        // YOUR CODE HERE
-        //
+        List<List<KGramStat>> qCorrections = new ArrayList<List<KGramStat>>();
+        int misspelled = 0, unknown = 0;
+        for (int i = 0; i < query.size(); i++) {
+            String term = query.queryterm.get(i).term;
+            List<KGramStat> candidates;
+            if (kgIndex.getIDByTerm(term) != null) {
+                candidates = new ArrayList<KGramStat>();
+                candidates.add(new KGramStat(term, score(term, 0)));
+            } else {
+                candidates = backend == SpellingBackend.BKTREE ? treeCandidates(term) : candidates(term);
+                misspelled++;
+            }
+            if (candidates.isEmpty()) {
+                // Left as it is, so that the other terms are still corrected
+                candidates.add(new KGramStat(term, 0));
+                unknown++;
+            }
+            Collections.sort(candidates, Collections.reverseOrder());
+            qCorrections.add(candidates);
+        }
+        if (misspelled == 0 || unknown == misspelled) {
+            return null;
+        }
+        List<KGramStat> merged = mergeCorrections(qCorrections, limit);
+        String[] corrections = new String[merged.size()];
+        for (int i = 0; i < corrections.length; i++) {
+            corrections[i] = merged.get(i).getToken();
+        }
+        return corrections;
+    }
+
+    /** Returns the score of a candidate at edit distance <code>distance</code>. */
+    private double score(String candidate, int distance) {
+        PostingsList postings = index.getPostings(candidate);
+        int df = postings == null ? 0 : postings.size();
+        return Math.log(1 + df) / (1 + distance);
+    }
+
+    /**
+     * Returns the terms of the index within MAX_EDIT_DISTANCE of
+     * <code>term</code> whose k-grams pass the Jaccard threshold, unsorted.
+     */
+    private List<KGramStat> candidates(String term) {
+        List<String> kgrams = kgIndex.kgrams(term);
+        int a = kgrams.size();
+        int[][] lists = new int[a][];
+        int n = 0;
+        for (String kgram : kgrams) {
+            int[] postings = kgIndex.getPostings(kgram);
+            if (postings != null) {
+                lists[n++] = postings;
+            }
+        }
+
+        // A term passing the threshold shares at least t * a k-grams with
+        // the term, since J = c / (a + b - c) >= t and b >= c
+        int T = Math.max(1, (int) Math.ceil(JACCARD_THRESHOLD * a - 1e-9));
+        List<KGramStat> candidates = new ArrayList<KGramStat>();
+        EditDistance distance = new EditDistance(term);
+        int[] pos = new int[n];
+        int[] heap = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            size = push(heap, size, i, lists, pos);
+        }
+        int[] popped = new int[n];
+        while (size >= T) {
+            int id = lists[heap[0]][pos[heap[0]]];
+            int count = 0;
+            while (size > 0 && lists[heap[0]][pos[heap[0]]] == id) {
+                popped[count++] = heap[0];
+                size = pop(heap, size, lists, pos);
+            }
+            int skipTo;
+            int m = count;
+            if (count >= T) {
+                consider(term, distance, a, id, count, candidates);
+                skipTo = id + 1;
+            } else {
+                // No term ID before the smallest one left can be in T lists
+                while (m < T - 1 && size > 0) {
+                    popped[m++] = heap[0];
+                    size = pop(heap, size, lists, pos);
+                }
+                if (size == 0) {
+                    break;
+                }
+                skipTo = lists[heap[0]][pos[heap[0]]];
+            }
+            for (int i = 0; i < m; i++) {
+                int l = popped[i];
+                pos[l] = gallop(lists[l], pos[l], skipTo);
+                if (pos[l] < lists[l].length) {
+                    size = push(heap, size, l, lists, pos);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /** Returns all terms of the index within MAX_EDIT_DISTANCE of <code>term</code>, unsorted. */
+    private List<KGramStat> treeCandidates(String term) {
+        if (bkTree == null) {
+            setBackend(SpellingBackend.BKTREE);
+        }
+        List<KGramStat> candidates = new ArrayList<KGramStat>();
+        bkTree.search(term, MAX_EDIT_DISTANCE, (termID, distance) -> {
+            String candidate = index.terms().term(termID);
+            candidates.add(new KGramStat(candidate, score(candidate, distance)));
+        });
+        return candidates;
+    }
+
+    /**
+     * Adds the term with ID <code>termID</code>, which shares
+     * <code>shared</code> of the <code>a</code> k-grams of <code>term</code>,
+     * to the candidates if it is close enough. <code>distance</code> gives
+     * the edit distance to <code>term</code>.
+     */
+    private void consider(String term, EditDistance distance, int a, int termID, int shared,
+            List<KGramStat> candidates) {
+        if (jaccard(a, kgIndex.kgramCount(termID), shared) < JACCARD_THRESHOLD) {
+            return;
+        }
+        String candidate = kgIndex.getTermByID(termID);
+        if (Math.abs(candidate.length() - term.length()) > MAX_EDIT_DISTANCE) {
+            return;
+        }
+        int d = distance.distance(candidate, MAX_EDIT_DISTANCE);
+        if (d <= MAX_EDIT_DISTANCE) {
+            candidates.add(new KGramStat(candidate, score(candidate, d)));
+        }
+    }
+
+    /** Returns the first position at or after <code>from</code> where <code>list</code> is at least <code>id</code>. */
+    private static int gallop(int[] list, int from, int id) {
+        int step = 1;
+        int lo = from, hi = from;
+        while (hi < list.length && list[hi] < id) {
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, list.length);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list[mid] < id) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*
+     * A binary min-heap of the k-gram lists, ordered by the term ID at
+     * their current positions.
+     */
+
+    private static int push(int[] heap, int size, int list, int[][] lists, int[] pos) {
+        int i = size++;
+        int id = lists[list][pos[list]];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (lists[heap[parent]][pos[heap[parent]]] <= id) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = list;
+        return size;
+    }
+
+    private static int pop(int[] heap, int size, int[][] lists, int[] pos) {
+        int last = heap[--size];
+        int id = size > 0 ? lists[last][pos[last]] : 0;
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && lists[heap[child + 1]][pos[heap[child + 1]]] < lists[heap[child]][pos[heap[child]]]) {
+                child++;
+            }
+            if (lists[heap[child]][pos[heap[child]]] >= id) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = last;
+        }
+        return size;
+    }
+
+    /**
+     * A partial phrase of the beam search: the sum of the scores of its
+     * terms, and, once it has two terms in the index, the documents that
+     * contain all of them, or their estimated number if they were not
+     * intersected.
+     */
+    private class Phrase {
+        final String text;
+        final double termScore;
+        /** The number of terms of the phrase that are in the index. */
+        final int terms;
+        /** The term in the index, if there is only one. */
+        final String term;
+        final int[] docs;
+        final double count;
+        final double score;
+        /** The order the phrase was made in, which breaks ties of score. */
+        final int order;
 
-        return null;
+        Phrase(String text, double termScore, int terms, String term, int[] docs, double count, int order) {
+            this.text = text;
+            this.termScore = termScore;
+            this.terms = terms;
+            this.term = term;
+            this.docs = docs;
+            this.count = docs != null ? docs.length : count;
+            this.order = order;
+            this.score = terms > 1 ? termScore + COOCCURRENCE_WEIGHT * Math.log(1 + this.count) : termScore;
+        }
+    }
+
+    /** Orders phrases from worst to best. */
+    private static int compare(Phrase a, Phrase b) {
+        int c = Double.compare(a.score, b.score);
+        return c != 0 ? c : Integer.compare(b.order, a.order);
     }
 
     /**
@@ -106,11 +416,250 @@ public class SpellChecker {
      * in
      * <code>qCorrections</code> into one final merging of query phrases. Returns up
      * to <code>limit</code> corrected phrases.
+     *
+     * The phrases are built one term at a time by a beam search: only the
+     * best phrases so far, kept in a bounded min-heap, are extended with
+     * the best candidates of the next term. A phrase scores the sum of the
+     * scores of its terms, plus, from its second term in the index on,
+     * COOCCURRENCE_WEIGHT times the log of one plus the number of documents
+     * that contain all its terms. That number is found by intersecting the
+     * documents of the phrase it extends with the postings of the new term,
+     * unless the extension can't make it into the beam even if every
+     * document of the shorter of the two had the other term too.
+     * Intersections are cached across queries. Once INTERSECTION_BUDGET is
+     * spent, the number is estimated as if the terms occurred
+     * independently. A term that is not in the index leaves the documents
+     * as they are.
      */
     private List<KGramStat> mergeCorrections(List<List<KGramStat>> qCorrections, int limit) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+        int width = Math.max(BEAM_WIDTH, limit);
+        long deadline = System.nanoTime() + INTERSECTION_BUDGET * 1000000L;
+        double N = Math.max(1, index.documents().size());
+        List<Phrase> beam = new ArrayList<Phrase>();
+        beam.add(new Phrase("", 0, 0, null, null, 0, 0));
+        for (List<KGramStat> corrections : qCorrections) {
+            PriorityQueue<Phrase> heap = new PriorityQueue<Phrase>(SpellChecker::compare);
+            int order = 0;
+            for (int i = 0; i < corrections.size() && i < width; i++) {
+                KGramStat c = corrections.get(i);
+                int df = documentFrequency(c.token);
+                for (Phrase phrase : beam) {
+                    String text = phrase.text.isEmpty() ? c.token : phrase.text + " " + c.token;
+                    double termScore = phrase.termScore + c.score;
+                    Phrase extended;
+                    if (df == 0) {
+                        extended = new Phrase(text, termScore, phrase.terms, phrase.term, phrase.docs, phrase.count, order++);
+                    } else if (phrase.terms == 0) {
+                        extended = new Phrase(text, termScore, 1, c.token, null, df, order++);
+                    } else {
+                        double bound = termScore + COOCCURRENCE_WEIGHT * Math.log(1 + Math.min(phrase.count, df));
+                        if (heap.size() == width && bound <= heap.peek().score) {
+                            continue;
+                        }
+                        int[] docs = intersections.get(text);
+                        double count = 0;
+                        if (docs == null) {
+                            int[] prefix = phrase.terms == 1 ? null : phrase.docs;
+                            if (phrase.terms > 1 && prefix == null || System.nanoTime() > deadline) {
+                                count = phrase.count * df / N;
+                            } else {
+                                if (prefix == null) {
+                                    prefix = docs(phrase.term);
+                                }
+                                docs = intersect(prefix, docs(c.token));
+                                intersections.put(text, docs);
+                            }
+                        }
+                        extended = new Phrase(text, termScore, phrase.terms + 1, null, docs, count, order++);
+                    }
+                    if (heap.size() < width || compare(extended, heap.peek()) > 0) {
+                        heap.add(extended);
+                        if (heap.size() > width) {
+                            heap.poll();
+                        }
+                    }
+                }
+            }
+            beam = new ArrayList<Phrase>(heap);
+            Collections.sort(beam, (a, b) -> compare(b, a));
+        }
+        List<KGramStat> phrases = new ArrayList<KGramStat>();
+        for (int i = 0; i < beam.size() && i < limit; i++) {
+            phrases.add(new KGramStat(beam.get(i).text, beam.get(i).score));
+        }
+        return phrases;
+    }
+
+    /** Returns the number of documents containing <code>term</code>. */
+    private int documentFrequency(String term) {
+        int[] docs = intersections.get(term);
+        if (docs != null) {
+            return docs.length;
+        }
+        PostingsList postings = index.getPostings(term);
+        return postings == null ? 0 : postings.size();
+    }
+
+    /** Returns the docIDs of the documents containing <code>term</code>, in order. */
+    private int[] docs(String term) {
+        int[] docs = intersections.get(term);
+        if (docs != null) {
+            return docs;
+        }
+        PostingsList postings = index.getPostings(term);
+        if (postings == null) {
+            return new int[0];
+        }
+        docs = new int[postings.size()];
+        PostingsCursor c = postings.cursor();
+        for (int i = 0; c.next(); i++) {
+            docs[i] = c.docID();
+        }
+        intersections.put(term, docs);
+        return docs;
+    }
+
+    /** Returns the docIDs in both sorted arrays, galloping through the longer one. */
+    private static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        int[] result = new int[a.length];
+        int n = 0;
+        int pos = 0;
+        for (int docID : a) {
+            pos = gallop(b, pos, docID);
+            if (pos == b.length) {
+                break;
+            }
+            if (b[pos] == docID) {
+                result[n++] = docID;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Compares the backends on a test set of misspellings: how often the
+     * intended term is among the candidates (recall) and ranked first,
+     * and how long a check takes. The test set is read from a file with
+     * lines <code>misspelling correct</code>, or made by one or two random
+     * edits of terms of the index.
+     *
+     * Usage: java ir.SpellChecker (-d dir [-p patterns_file] | -ni) [-m misspellings_file] [-n misspellings]
+     */
+    public static void main(String[] args) throws IOException {
+        String dir = null, patterns_file = null, misspellings_file = null;
+        boolean persistent = false;
+        int n = 1000;
+        for (int i = 0; i < args.length; i++) {
+            if ("-d".equals(args[i]) && i + 1 < args.length) {
+                dir = args[++i];
+            } else if ("-p".equals(args[i]) && i + 1 < args.length) {
+                patterns_file = args[++i];
+            } else if ("-m".equals(args[i]) && i + 1 < args.length) {
+                misspellings_file = args[++i];
+            } else if ("-n".equals(args[i]) && i + 1 < args.length) {
+                n = Integer.parseInt(args[++i]);
+            } else if ("-ni".equals(args[i])) {
+                persistent = true;
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+            }
+        }
+        if (dir == null && !persistent) {
+            System.err.println("Usage: java ir.SpellChecker (-d dir [-p patterns_file] | -ni) [-m misspellings_file] [-n misspellings]");
+            return;
+        }
+
+        Index index;
+        if (persistent) {
+            index = new PersistentHashedIndex(true);
+        } else {
+            index = new HashedIndex();
+            new Indexer(index, null, patterns_file).processFiles(new File(dir), true);
+            index.cleanup();
+        }
+        KGramIndex kgIndex = new KGramIndex(2, index.terms());
+        kgIndex.insertNewTerms();
+        SpellChecker speller = new SpellChecker(index, kgIndex);
+        long startTime = System.currentTimeMillis();
+        speller.setBackend(SpellingBackend.BKTREE);
+        System.err.println(String.format("%d terms, BK-tree built in %.1f seconds", index.terms().size(),
+                (System.currentTimeMillis() - startTime) / 1000.0));
+
+        ArrayList<String[]> tests = new ArrayList<String[]>();
+        if (misspellings_file != null) {
+            try (BufferedReader in = new BufferedReader(new FileReader(misspellings_file))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] pair = line.trim().split("\\s+");
+                    if (pair.length == 2) {
+                        tests.add(pair);
+                    }
+                }
+            }
+        } else {
+            Random random = new Random(42);
+            TermDictionary terms = index.terms();
+            while (tests.size() < n) {
+                String correct = terms.term(random.nextInt(terms.size()));
+                if (correct.length() < 4) {
+                    continue;
+                }
+                StringBuilder sb = new StringBuilder(correct);
+                for (int e = 1 + random.nextInt(2); e > 0; e--) {
+                    int p = random.nextInt(sb.length());
+                    char c = (char) ('a' + random.nextInt(26));
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            sb.insert(p, c);
+                            break;
+                        case 1:
+                            sb.deleteCharAt(p);
+                            break;
+                        default:
+                            sb.setCharAt(p, c);
+                    }
+                }
+                if (kgIndex.getIDByTerm(sb.toString()) == null) {
+                    tests.add(new String[] { sb.toString(), correct });
+                }
+            }
+        }
+
+        for (SpellingBackend backend : SpellingBackend.values()) {
+            speller.setBackend(backend);
+            long[] times = new long[tests.size()];
+            int found = 0, first = 0;
+            long candidates = 0;
+            // Twice; the first round warms up the JIT
+            for (int round = 0; round < 2; round++) {
+                found = first = 0;
+                candidates = 0;
+                for (int i = 0; i < tests.size(); i++) {
+                    long start = System.nanoTime();
+                    String[] corrections = speller.check(new Query(tests.get(i)[0]), Integer.MAX_VALUE);
+                    times[i] = System.nanoTime() - start;
+                    if (corrections != null) {
+                        candidates += corrections.length;
+                        found += Arrays.asList(corrections).contains(tests.get(i)[1]) ? 1 : 0;
+                        first += corrections[0].equals(tests.get(i)[1]) ? 1 : 0;
+                    }
+                }
+            }
+            Arrays.sort(times);
+            long total = 0;
+            for (long t : times) {
+                total += t;
+            }
+            int m = tests.size();
+            System.err.println(String.format(
+                    "%-7s recall %.3f, first %.3f, %.1f candidates, %.3f ms mean, %.3f ms p99, %.3f ms max",
+                    backend, (double) found / m, (double) first / m, (double) candidates / m, total / 1e6 / m,
+                    times[Math.min(m - 1, m * 99 / 100)] / 1e6, times[m - 1] / 1e6));
+        }
     }
 }
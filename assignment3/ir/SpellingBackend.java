@@ -0,0 +1,16 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ *  The different ways the spelling checker finds the candidate
+ *  corrections of a term: by the k-grams they share with it, or by a
+ *  BK-tree of all terms, which finds every term within the maximum edit
+ *  distance.
+ */
+public enum SpellingBackend {
+    KGRAM, BKTREE
+}
@@ -0,0 +1,179 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * The terms of an index, each with a dense integer term ID given in the
+ * order the terms are first seen. The inverted index and the k-gram index
+ * both key their postings by term ID, so every term string is stored once,
+ * here.
+ *
+ * Terms are looked up in an open-addressing hash table of term IDs. Terms
+ * may be added by several indexing threads at once, while other threads
+ * look terms up: adding and looking up a term ID are synchronized, and
+ * the terms by term ID are published through volatile fields, so that
+ * <code>term</code>, which the spelling checker calls in its inner loops,
+ * takes no lock.
+ */
+public class TermDictionary {
+
+    /** The terms, by term ID. */
+    private volatile String[] terms = new String[1024];
+
+    /**
+     * Number of terms. It is written after the term it counts, so a
+     * thread that reads it sees all terms with smaller term IDs.
+     */
+    private volatile int size = 0;
+
+    /** The hash table: the term ID of every slot, or -1 for an empty slot. */
+    private int[] table = newTable(2048);
+
+    /** Creates an empty dictionary. */
+    public TermDictionary() {
+    }
+
+    private static int[] newTable(int n) {
+        int[] table = new int[n];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    /** Returns the slot where the search for a term with hash code <code>hash</code> starts. */
+    private static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /** Number of terms. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the term with a given term ID, or null if there is none. */
+    public String term(int termID) {
+        // Read size before terms
+        return termID < size ? terms[termID] : null;
+    }
+
+    /** Returns the term ID of a term, or -1 if it is not in the dictionary. */
+    public synchronized int id(String term) {
+        int mask = table.length - 1;
+        for (int slot = slot(term.hashCode(), mask); table[slot] >= 0; slot = (slot + 1) & mask) {
+            if (terms[table[slot]].equals(term)) {
+                return table[slot];
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the term ID of a term, adding the term if it is new. */
+    public synchronized int add(String term) {
+        int mask = table.length - 1;
+        int slot = slot(term.hashCode(), mask);
+        for (; table[slot] >= 0; slot = (slot + 1) & mask) {
+            if (terms[table[slot]].equals(term)) {
+                return table[slot];
+            }
+        }
+        return add(term, slot);
+    }
+
+    /**
+     * Returns the term ID of the term with the characters
+     * <code>buf[start, start + length)</code>, adding the term if it is new.
+     * A string is only made for a new term.
+     */
+    public synchronized int add(char[] buf, int start, int length) {
+        int hash = hashCode(buf, start, length);
+        int mask = table.length - 1;
+        int slot = slot(hash, mask);
+        for (; table[slot] >= 0; slot = (slot + 1) & mask) {
+            String term = terms[table[slot]];
+            if (term.hashCode() == hash && equals(term, buf, start, length)) {
+                return table[slot];
+            }
+        }
+        return add(new String(buf, start, length), slot);
+    }
+
+    /** Adds a new term in an empty slot of the hash table. */
+    private int add(String term, int slot) {
+        int termID = size;
+        if (termID == terms.length) {
+            terms = Arrays.copyOf(terms, 2 * termID);
+        }
+        terms[termID] = term;
+        table[slot] = termID;
+        if (termID + 1 > table.length / 2) {
+            grow(termID + 1);
+        }
+        size = termID + 1;
+        return termID;
+    }
+
+    /** Doubles the hash table, which holds the first <code>n</code> terms. */
+    private void grow(int n) {
+        int[] grown = newTable(2 * table.length);
+        int mask = grown.length - 1;
+        for (int termID = 0; termID < n; termID++) {
+            int slot = slot(terms[termID].hashCode(), mask);
+            while (grown[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = termID;
+        }
+        table = grown;
+    }
+
+    /** Returns the hash code of the string of the characters, as <code>String.hashCode</code>. */
+    static int hashCode(char[] buf, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        return hash;
+    }
+
+    /** Returns true if <code>term</code> has the characters <code>buf[start, start + length)</code>. */
+    static boolean equals(String term, char[] buf, int start, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the terms to <code>file</code>, in term ID order. */
+    public synchronized void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), PersistentHashedIndex.BUFFER_SIZE))) {
+            out.writeInt(size);
+            for (int termID = 0; termID < size; termID++) {
+                out.writeUTF(terms[termID]);
+            }
+        }
+    }
+
+    /** Reads a dictionary written by <code>write</code>, with the same term IDs. */
+    public static TermDictionary read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), PersistentHashedIndex.BUFFER_SIZE))) {
+            int n = in.readInt();
+            TermDictionary dictionary = new TermDictionary();
+            for (int i = 0; i < n; i++) {
+                dictionary.add(in.readUTF());
+            }
+            return dictionary;
+        }
+    }
+}
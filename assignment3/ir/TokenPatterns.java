@@ -0,0 +1,435 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The patterns matching non-standard words (e-mail addresses, etc.), read
+ * from a patterns file with one regular expression per line.
+ *
+ * A token is matched against the patterns in order, and the first pattern
+ * that matches anywhere in the token wins. Rather than trying every pattern
+ * on every token, the patterns are also compiled into one alternation with
+ * a named group per pattern: if it does not match, no pattern does, and if
+ * it does, only the patterns before the one it found have to be tried.
+ * Tokens of ASCII letters only are not matched at all if every pattern
+ * needs a character that is not an ASCII letter (a digit, an @, etc.), as
+ * found by reading the patterns when they are read. Patterns using regular
+ * expression features that this does not follow are assumed to match
+ * letters.
+ *
+ * The patterns of a file are read and compiled once and shared by all
+ * tokenizers. Patterns are thread-safe; every tokenizer gets its own
+ * Finder, which holds the matchers.
+ */
+public class TokenPatterns {
+
+    /** The patterns read so far, by file name. */
+    private static final ConcurrentHashMap<String, TokenPatterns> CACHE = new ConcurrentHashMap<String, TokenPatterns>();
+
+    /** The patterns, in order. */
+    final Pattern[] patterns;
+
+    /** The alternation of all patterns, or null if they cannot be combined. */
+    private final Pattern combined;
+
+    /** The group of the alternation that holds each pattern. */
+    private final int[] groups;
+
+    /** True if no pattern can match in a token of ASCII letters. */
+    private final boolean skips_letters;
+
+    private TokenPatterns(ArrayList<Pattern> list) {
+        patterns = list.toArray(new Pattern[0]);
+        combined = combine(patterns);
+        groups = new int[patterns.length];
+        for (int i = 1; i < patterns.length; i++) {
+            groups[i] = groups[i - 1] + 1 + patterns[i - 1].matcher("").groupCount();
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            groups[i]++;
+        }
+        boolean skips = true;
+        for (Pattern p : patterns) {
+            skips &= needsNonLetter(p);
+        }
+        skips_letters = skips;
+    }
+
+    /** Returns the patterns of <code>filename</code>, reading them the first time. */
+    public static TokenPatterns forFile(String filename) {
+        return CACHE.computeIfAbsent(filename, TokenPatterns::read);
+    }
+
+    /**
+     * Reads the patterns that match non-standard words
+     */
+    private static TokenPatterns read(String filename) {
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+        String line = null;
+        try (BufferedReader in = new BufferedReader(new FileReader(filename))) {
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (!line.startsWith("//") && line.length() > 0) {
+                    patterns.add(Pattern.compile(line));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: IOException reading the regular expressions from file");
+        } catch (PatternSyntaxException e) {
+            System.err.println("ERROR: Malformed regular expression: " + line);
+        }
+        return new TokenPatterns(patterns);
+    }
+
+    /**
+     * Returns the alternation of the patterns, each in a group of its own
+     * (named "p" + i, so that the numbers of their own groups are kept), or
+     * null if the patterns have back references or inline flags, which would
+     * not mean the same in the alternation.
+     */
+    private static Pattern combine(Pattern[] patterns) {
+        if (patterns.length < 2) {
+            return null;
+        }
+        Pattern unsafe = Pattern.compile("\\\\[1-9k]|\\(\\?[a-zA-Z-]+[:)]");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < patterns.length; i++) {
+            if (unsafe.matcher(patterns[i].pattern()).find()) {
+                return null;
+            }
+            sb.append(i > 0 ? "|" : "").append("(?<p").append(i).append('>').append(patterns[i].pattern()).append(')');
+        }
+        try {
+            return Pattern.compile(sb.toString());
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    /** Returns true if no pattern matches in a token of ASCII letters. */
+    public boolean skipsLetters() {
+        return skips_letters;
+    }
+
+    /**
+     * Returns true if every match of <code>pattern</code> contains a
+     * character that is not an ASCII letter. False if that can't be told.
+     */
+    static boolean needsNonLetter(Pattern pattern) {
+        if ((pattern.flags() & (Pattern.COMMENTS | Pattern.LITERAL)) != 0) {
+            return false;
+        }
+        RegexReader reader = new RegexReader(pattern.pattern());
+        try {
+            boolean needs = reader.alternation();
+            return needs && reader.pos == reader.regex.length();
+        } catch (RuntimeException e) {
+            // A construct the reader does not follow
+            return false;
+        }
+    }
+
+    /** Returns true if <code>c</code> is an ASCII character, but not a letter. */
+    private static boolean nonLetter(int c) {
+        return c < 128 && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Reads a regular expression to find out if all its matches contain a
+     * character that is not an ASCII letter. Each method reads a part of
+     * the expression and returns true if all matches of the part do.
+     * Constructs that it does not follow throw IllegalArgumentException.
+     */
+    private static class RegexReader {
+
+        final String regex;
+        int pos = 0;
+
+        RegexReader(String regex) {
+            this.regex = regex;
+        }
+
+        private boolean at(char c) {
+            return pos < regex.length() && regex.charAt(pos) == c;
+        }
+
+        private void expect(char c) {
+            if (!at(c)) {
+                throw new IllegalArgumentException("Expected " + c + " at " + pos);
+            }
+            pos++;
+        }
+
+        /** Alternatives separated by |: all of them must need a non-letter. */
+        boolean alternation() {
+            boolean all = sequence();
+            while (at('|')) {
+                pos++;
+                all &= sequence();
+            }
+            return all;
+        }
+
+        /** Quantified atoms: one that is not optional must need a non-letter. */
+        boolean sequence() {
+            boolean any = false;
+            while (pos < regex.length() && !at('|') && !at(')')) {
+                boolean needs = atom();
+                if (!optional()) {
+                    any |= needs;
+                }
+            }
+            return any;
+        }
+
+        private boolean atom() {
+            char c = regex.charAt(pos++);
+            switch (c) {
+            case '(':
+                return group();
+            case '[':
+                return characterClass();
+            case '\\':
+                return escape();
+            case '.':
+            case '^':
+            case '$':
+                return false;
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw new IllegalArgumentException("Quantifier at " + pos);
+            default:
+                return nonLetter(c);
+            }
+        }
+
+        /**
+         * Reads the quantifier after an atom, if there is one.
+         *
+         * @return true if the quantifier allows zero occurrences.
+         */
+        private boolean optional() {
+            boolean zero;
+            if (at('?') || at('*')) {
+                zero = true;
+                pos++;
+            } else if (at('+')) {
+                zero = false;
+                pos++;
+            } else if (at('{')) {
+                int end = regex.indexOf('}', pos);
+                zero = Integer.parseInt(regex.substring(pos + 1, end).split(",")[0]) == 0;
+                pos = end + 1;
+            } else {
+                return false;
+            }
+            // Lazy and possessive quantifiers
+            if (at('?') || at('+')) {
+                pos++;
+            }
+            return zero;
+        }
+
+        /** A group, after its (. Lookarounds are taken not to need anything. */
+        private boolean group() {
+            boolean lookaround = false;
+            if (at('?')) {
+                pos++;
+                if (at(':') || at('>')) {
+                    pos++;
+                } else if (at('=') || at('!')) {
+                    pos++;
+                    lookaround = true;
+                } else if (at('<')) {
+                    pos++;
+                    if (at('=') || at('!')) {
+                        pos++;
+                        lookaround = true;
+                    } else {
+                        pos = regex.indexOf('>', pos) + 1;
+                        if (pos == 0) {
+                            throw new IllegalArgumentException("Unclosed group name");
+                        }
+                    }
+                } else {
+                    // Inline flags, alone or for the group
+                    int start = pos;
+                    while (pos < regex.length() && (Character.isLetter(regex.charAt(pos)) || at('-'))) {
+                        pos++;
+                    }
+                    if (regex.substring(start, pos).indexOf('x') >= 0) {
+                        throw new IllegalArgumentException("Comments mode");
+                    }
+                    if (at(')')) {
+                        pos++;
+                        return false;
+                    }
+                    expect(':');
+                }
+            }
+            boolean needs = alternation();
+            expect(')');
+            return needs && !lookaround;
+        }
+
+        /**
+         * A character class, after its [: it needs a non-letter if it is
+         * not negated and has no ASCII letter.
+         */
+        private boolean characterClass() {
+            boolean needs = true;
+            if (at('^')) {
+                needs = false;
+                pos++;
+            }
+            for (boolean first = true; first || !at(']'); first = false) {
+                if (at('[') || (at('&') && regex.startsWith("&&", pos))) {
+                    throw new IllegalArgumentException("Class union or intersection at " + pos);
+                }
+                int low = classCharacter();
+                if (at('-') && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    int high = classCharacter();
+                    if (low < 0 || high < 0 || high >= 128 || (low <= 'z' && high >= 'A')) {
+                        needs = false;
+                    }
+                } else if (low < 0 || !nonLetter(low)) {
+                    needs = low == -1 && needs;
+                }
+            }
+            pos++;
+            return needs;
+        }
+
+        /**
+         * Reads a character of a class. Returns it, or -1 for an escape of
+         * non-letters only (\d, \s, ...), or -2 for one that may match a
+         * letter.
+         */
+        private int classCharacter() {
+            char c = regex.charAt(pos++);
+            if (c != '\\') {
+                return c;
+            }
+            c = regex.charAt(pos++);
+            if (!Character.isLetterOrDigit(c)) {
+                return c;
+            }
+            if ("dsWhvtnrf".indexOf(c) >= 0) {
+                return -1;
+            }
+            if ("wDSHV".indexOf(c) >= 0) {
+                return -2;
+            }
+            throw new IllegalArgumentException("Escape \\" + c);
+        }
+
+        /** An escape, after its backslash. */
+        private boolean escape() {
+            char c = regex.charAt(pos++);
+            if (!Character.isLetterOrDigit(c)) {
+                return nonLetter(c);
+            }
+            if ("dsWhvRtnrf".indexOf(c) >= 0) {
+                return true;
+            }
+            if ("bBAzZGwDSHVX".indexOf(c) >= 0) {
+                return false;
+            }
+            if (c >= '1' && c <= '9') {
+                // A back reference
+                while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+                    pos++;
+                }
+                return false;
+            }
+            // \Q, \p, \x, \k, ...
+            throw new IllegalArgumentException("Escape \\" + c);
+        }
+    }
+
+    /** Returns a new Finder for these patterns, for use by one thread. */
+    public Finder finder() {
+        return new Finder();
+    }
+
+    /** Finds the first pattern that matches in a token. Not thread-safe. */
+    public class Finder {
+
+        private final Matcher all;
+        private final Matcher[] each;
+
+        /** Where the match found by <code>find</code> starts and ends. */
+        int start;
+        int end;
+
+        private Finder() {
+            all = combined == null ? null : combined.matcher("");
+            each = new Matcher[patterns.length];
+            for (int i = 0; i < each.length; i++) {
+                each[i] = patterns[i].matcher("");
+            }
+        }
+
+        /**
+         * Finds the leftmost match of the first pattern that matches in
+         * <code>token</code>, and sets <code>start</code> and <code>end</code>.
+         *
+         * @return false if no pattern matches.
+         */
+        public boolean find(CharSequence token) {
+            int last = each.length;
+            if (all != null) {
+                all.reset(token);
+                if (!all.find()) {
+                    return false;
+                }
+                // The alternative that matched first; an earlier pattern
+                // can only match further on in the token
+                last = 0;
+                while (all.start(groups[last]) < 0) {
+                    last++;
+                }
+                for (int i = 0; i < last; i++) {
+                    if (found(i, token)) {
+                        return true;
+                    }
+                }
+                start = all.start();
+                end = all.end();
+                return true;
+            }
+            for (int i = 0; i < last; i++) {
+                if (found(i, token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean found(int i, CharSequence token) {
+            Matcher m = each[i];
+            m.reset(token);
+            if (m.find()) {
+                start = m.start();
+                end = m.end();
+                return true;
+            }
+            return false;
+        }
+    }
+}
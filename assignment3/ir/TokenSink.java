@@ -0,0 +1,20 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ * Receives the tokens of a Tokenizer without a string being made of each
+ * of them (see <code>Tokenizer.tokenize</code>).
+ */
+public interface TokenSink {
+
+    /**
+     * Receives the token <code>buf[start]</code> up to (not including)
+     * <code>buf[start + length]</code>. The buffer belongs to the tokenizer
+     * and is overwritten, so the token must be copied if it is kept.
+     */
+    public void token(char[] buf, int start, int length);
+}
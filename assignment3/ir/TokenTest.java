@@ -9,6 +9,8 @@ package ir;
 
 import java.io.*;
 import java.nio.charset.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
 
 
 /** 
@@ -21,6 +23,23 @@ public class TokenTest {
     boolean remove_punctuation = false;
     String patternsfile = null;
     String filename = null;
+    boolean benchmark = false;
+    boolean check = false;
+
+    /**
+     *  Test cases for the patterns of non-standard words: a pattern, a text,
+     *  its tokens, and whether tokens of letters only can skip the pattern.
+     */
+    static final String[][] PATTERN_CASES = {
+        { "ing", "filtering", "filter ing", "false" },
+        { "(?i)ING\\b", "filtering rings", "filter ing rings", "false" },
+        { "[a-z]+(?:[0-9]+)?", "abc", "abc", "false" },
+        { "\\d+", "abc 12", "abc 12", "true" },
+        { "[a-z]+@[a-z]+", "mail a@b", "mail a@b", "true" },
+        { "[a-zA-Z]+(-[a-zA-Z]+)+", "a well-known fact", "a well-known fact", "true" },
+        { "[a-z]+|\\d+", "filtering 42", "filtering 42", "false" },
+        { "[^0-9]+", "filtering", "filtering", "false" },
+    };
 
     /**
      *  Tokenizes and indexes the file @code{f}. If @code{f} is a directory,
@@ -55,6 +74,114 @@ public class TokenTest {
     }
 
 
+    /** Adds the files under @code{f} to @code{files}. */
+    void listFiles( File f, ArrayList<File> files ) {
+        if ( f.isDirectory() ) {
+            String[] fs = f.list();
+            if ( fs != null ) {
+                for ( int i=0; i<fs.length; i++ ) {
+                    listFiles( new File( f, fs[i] ), files );
+                }
+            }
+        } else if ( f.canRead() ) {
+            files.add( f );
+        }
+    }
+
+
+    /**
+     *  Measures how fast the files under @code{f} are tokenized: with a new
+     *  tokenizer for every file that gives the tokens as strings (nextToken),
+     *  and with one tokenizer for all files that gives them as views into
+     *  its buffer (tokenize). Checks that both give the same tokens. The
+     *  files are read into memory first, so the disk is not measured.
+     */
+    public void benchmark( File f ) throws IOException {
+        ArrayList<File> files = new ArrayList<File>();
+        listFiles( f, files );
+        byte[][] contents = new byte[files.size()][];
+        long bytes = 0;
+        for ( int i=0; i<contents.length; i++ ) {
+            contents[i] = Files.readAllBytes( files.get( i ).toPath() );
+            bytes += contents[i].length;
+        }
+        long[] result = new long[2];
+        long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] tokens = new long[2], checksum = new long[2];
+        // A few rounds; the first ones warm up the JIT
+        for ( int round=0; round<5; round++ ) {
+            for ( int mode=0; mode<2; mode++ ) {
+                long start = System.nanoTime();
+                result[0] = result[1] = 0;
+                Tokenizer reused = null;
+                for ( byte[] content : contents ) {
+                    Reader reader = new InputStreamReader( new ByteArrayInputStream( content ), StandardCharsets.UTF_8 );
+                    if ( mode == 0 ) {
+                        Tokenizer tok = new Tokenizer( reader, case_folding, remove_diacritics, remove_punctuation, patternsfile );
+                        while ( tok.hasMoreTokens() ) {
+                            result[0]++;
+                            result[1] += tok.nextToken().hashCode();
+                        }
+                    } else {
+                        if ( reused == null ) {
+                            reused = new Tokenizer( reader, case_folding, remove_diacritics, remove_punctuation, patternsfile );
+                        } else {
+                            reused.reset( reader );
+                        }
+                        reused.tokenize( ( buf, from, length ) -> {
+                            int h = 0;
+                            for ( int i=from; i<from+length; i++ ) {
+                                h = 31*h + buf[i];
+                            }
+                            result[0]++;
+                            result[1] += h;
+                        });
+                    }
+                }
+                best[mode] = Math.min( best[mode], System.nanoTime() - start );
+                tokens[mode] = result[0];
+                checksum[mode] = result[1];
+            }
+        }
+        System.err.println( String.format( "%d files, %.1f MB, %d tokens", files.size(), bytes / 1e6, tokens[0] ));
+        System.err.println( String.format( "nextToken: %8.1f MB/s", bytes / 1e6 / ( best[0] / 1e9 )));
+        System.err.println( String.format( "tokenize:  %8.1f MB/s", bytes / 1e6 / ( best[1] / 1e9 )));
+        if ( tokens[0] != tokens[1] || checksum[0] != checksum[1] ) {
+            System.err.println( "The two ways of reading the tokens give different tokens" );
+            System.exit( 1 );
+        }
+    }
+
+
+    /**
+     *  Tokenizes the texts of PATTERN_CASES with their patterns, and checks
+     *  that the tokens are the expected ones.
+     */
+    public void checkPatterns() throws IOException {
+        int failures = 0;
+        for ( String[] c : PATTERN_CASES ) {
+            File file = File.createTempFile( "patterns", ".txt" );
+            file.deleteOnExit();
+            Files.write( file.toPath(), c[0].getBytes( StandardCharsets.UTF_8 ));
+            Tokenizer tok = new Tokenizer( new StringReader( c[1] + "\n" ), false, false, false, file.getPath() );
+            StringBuilder tokens = new StringBuilder();
+            while ( tok.hasMoreTokens() ) {
+                tokens.append( tokens.length() > 0 ? " " : "" ).append( tok.nextToken() );
+            }
+            boolean skips = TokenPatterns.forFile( file.getPath() ).skipsLetters();
+            if ( !tokens.toString().equals( c[2] ) || skips != Boolean.parseBoolean( c[3] )) {
+                System.err.println( "Pattern " + c[0] + " on \"" + c[1] + "\": got \"" + tokens + "\", skips letters " + skips +
+                                    ", expected \"" + c[2] + "\", skips letters " + c[3] );
+                failures++;
+            }
+        }
+        System.err.println( failures + " of " + PATTERN_CASES.length + " pattern cases failed" );
+        if ( failures > 0 ) {
+            System.exit( 1 );
+        }
+    }
+
+
     /** Prints usage information. */
     static void printHelpMessage() {
         System.err.println( "The following parameters are available: " );
@@ -63,6 +190,8 @@ public class TokenTest {
         System.err.println( "  -rd : removes diacritics  (optional)" );
         System.err.println( "  -p <filename> : name of the file containing regular expressions for non-standard words (optional)" );
         System.err.println( "  -f <filename> : name of file or directory to be tokenized (mandatory)" );
+        System.err.println( "  -b : measures the tokenizing speed instead of printing the tokens (optional)" );
+        System.err.println( "  -t : checks the tokenizer on a few texts with patterns of non-standard words" );
     }
 
 
@@ -81,6 +210,12 @@ public class TokenTest {
             } else if ( args[i].equals( "-rp" )) {
                 t.remove_punctuation = true;
                 i++;
+            } else if ( args[i].equals( "-b" )) {
+                t.benchmark = true;
+                i++;
+            } else if ( args[i].equals( "-t" )) {
+                t.check = true;
+                i++;
             } else if ( args[i].equals( "-f" )) {
                 i++;
                 if ( i<args.length ) {
@@ -105,7 +240,19 @@ public class TokenTest {
                 return;
             }
         }
-        if ( t.filename != null ) {
+        if ( t.check ) {
+            try {
+                t.checkPatterns();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        } else if ( t.filename != null && t.benchmark ) {
+            try {
+                t.benchmark( new File( t.filename ));
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        } else if ( t.filename != null ) {
             t.processFiles( new File( t.filename ));
         } else {
             printHelpMessage();
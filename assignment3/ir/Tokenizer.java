@@ -9,18 +9,18 @@ package ir;
 
 import java.io.Reader;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.regex.PatternSyntaxException;
+import java.util.ArrayDeque;
 import java.lang.System;
 
 /**
  * This class performs tokenization of UTF-8 encoded text files.
+ *
+ * The tokens can be read one at a time as strings (<code>nextToken</code>),
+ * or all be handed to a TokenSink (<code>tokenize</code>) as views into the
+ * buffer of the tokenizer, in which case no string is made of them.
  */
 public class Tokenizer {
 
@@ -64,13 +64,22 @@ public class Tokenizer {
     int token_start = -1;
 
     /** The next tokens to emit. */
-    ArrayList<String> token_queue = new ArrayList<String>();
+    ArrayDeque<String> token_queue = new ArrayDeque<String>();
+
+    /** Puts the tokens it gets on the token queue, as strings. */
+    private final TokenSink queue_sink = (b, start, length) -> token_queue.add(new String(b, start, length));
 
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
-    ArrayList<Pattern> patterns = null;
+    TokenPatterns patterns = null;
+
+    /** Finds the patterns in the tokens, reused for every token. */
+    private TokenPatterns.Finder finder;
+
+    /** The token being matched against the patterns. */
+    private final CharView view = new CharView();
 
     /**
      * Special characters (with diacritics) can be translated into these characters.
@@ -86,6 +95,27 @@ public class Tokenizer {
             'r', 'R', 'r', 'R', 'r', 'S', 's', 'S', 's', 'S', 's', 'S', 's', 'T', 't', 'T', 't', 'T', 't', 'U', 'u',
             'U', 'u', 'U', 'u', 'U', 'u', 'U', 'u', 'U', 'u', 'W', 'w', 'Y', 'y', 'Y', 'Z', 'z', 'Z', 'z', 'Z', 'z' };
 
+    /** For ASCII characters: true for the punctuation characters. */
+    private static final boolean[] ASCII_PUNCTUATION = new boolean[128];
+
+    /**
+     * For ASCII characters: the character if it can occur in a token, and
+     * 0 otherwise; in ASCII_FOLDED in lowercase.
+     */
+    private static final char[] ASCII_TOKEN = new char[128];
+    private static final char[] ASCII_FOLDED = new char[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII_PUNCTUATION[c] = (c >= 32 && c <= 47) || (c >= 58 && c <= 64) || (c >= 91 && c <= 96)
+                    || (c >= 123 && c <= 126);
+            if (c >= '!' && c <= '~') {
+                ASCII_TOKEN[c] = c;
+                ASCII_FOLDED[c] = Character.toLowerCase(c);
+            }
+        }
+    }
+
     /* ------------------------------ */
 
     /**
@@ -112,45 +142,28 @@ public class Tokenizer {
         this.remove_diacritics = remove_diacritics;
         this.remove_punctuation = remove_punctuation;
         if (pattern_file != null) {
-            readPatterns(pattern_file);
+            patterns = TokenPatterns.forFile(pattern_file);
+            finder = patterns.finder();
         }
     }
 
     /**
-     * Returns true if the character is a punctuation character.
+     * Starts tokenizing the text of <code>reader</code>, reusing the buffer
+     * and the patterns of this tokenizer.
      */
-    public boolean punctuation(char c) {
-        if (c >= 32 && c <= 47)
-            return true;
-        if (c >= 58 && c <= 64)
-            return true;
-        if (c >= 91 && c <= 96)
-            return true;
-        if (c >= 123 && c <= 126)
-            return true;
-        return false;
+    public void reset(Reader reader) {
+        this.reader = reader;
+        ptr = 0;
+        token_start = -1;
+        token_queue.clear();
+        started_reading = false;
     }
 
     /**
-     * Read the patterns that match non-standard words
+     * Returns true if the character is a punctuation character.
      */
-    private void readPatterns(String filename) {
-        patterns = new ArrayList<Pattern>();
-        String line = null;
-        try {
-
-            BufferedReader in = new BufferedReader(new FileReader(filename));
-            while ((line = in.readLine()) != null) {
-                line = line.trim();
-                if (!line.startsWith("//") && line.length() > 0) {
-                    patterns.add(Pattern.compile(line));
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Warning: IOException reading the regular expressions from file");
-        } catch (PatternSyntaxException e) {
-            System.err.println("ERROR: Malformed regular expression: " + line);
-        }
+    public boolean punctuation(char c) {
+        return c < 128 && ASCII_PUNCTUATION[c];
     }
 
     /**
@@ -163,6 +176,11 @@ public class Tokenizer {
      */
     public boolean normalize(char[] buf, int ptr) {
         char c = buf[ptr];
+        if (c < 128) {
+            char n = case_folding ? ASCII_FOLDED[c] : ASCII_TOKEN[c];
+            buf[ptr] = n == 0 ? c : n;
+            return n != 0;
+        }
         if (Character.isLetter(c)) {
             if (remove_diacritics) {
                 // Remove diacritics by mapping to the closest character
@@ -176,9 +194,6 @@ public class Tokenizer {
             }
             return true;
         }
-        if (c >= '!' && c <= '~') {
-            return true;
-        }
         // This is not a character that can occur in a token.
         return false;
     }
@@ -189,11 +204,11 @@ public class Tokenizer {
      */
     public boolean hasMoreTokens() throws IOException {
         if (!started_reading) {
-            readTokens();
+            readTokens(queue_sink);
             started_reading = true;
         }
         if (token_queue.size() == 0)
-            return readTokens();
+            return readTokens(queue_sink);
         else
             return true;
     }
@@ -204,19 +219,34 @@ public class Tokenizer {
      */
     public String nextToken() throws IOException {
         if (token_queue.size() == 0) {
-            if (readTokens())
-                return token_queue.remove(0);
+            if (readTokens(queue_sink))
+                return token_queue.poll();
             else
                 return null;
         } else {
-            return token_queue.remove(0);
+            return token_queue.poll();
         }
     }
 
     /**
-     * Reads the next token.
+     * Hands all the (remaining) tokens to <code>sink</code>, in order, as
+     * views into the buffer of the tokenizer.
      */
-    private boolean readTokens() throws IOException {
+    public void tokenize(TokenSink sink) throws IOException {
+        while (!token_queue.isEmpty()) {
+            String t = token_queue.poll();
+            sink.token(t.toCharArray(), 0, t.length());
+        }
+        while (readTokens(sink)) {
+        }
+    }
+
+    /**
+     * Reads the next tokens, until at least one is given to <code>sink</code>.
+     *
+     * @return false at the end of the input.
+     */
+    private boolean readTokens(TokenSink sink) throws IOException {
         if (!started_reading) {
             refillBuffer(0);
             started_reading = true;
@@ -235,7 +265,7 @@ public class Tokenizer {
                     ptr++;
                 } else {
                     // Check for non-standard words
-                    token_added_to_queue = addTokensToQueue();
+                    token_added_to_queue = addTokens(sink, token_start, ptr);
                     token_start = -1;
                     ptr++;
                 }
@@ -264,79 +294,120 @@ public class Tokenizer {
     }
 
     /**
-     * Adds token to the queue
+     * Gives the tokens of <code>buf[start, end)</code> to the sink.
+     *
+     * @return true if any token was given.
      */
-    private boolean addTokensToQueue() {
-        if (token_start < 0) {
+    private boolean addTokens(TokenSink sink, int start, int end) {
+        if (start < 0) {
             return false;
         }
-        String s = new String(buf, token_start, ptr - token_start);
-        if (patterns != null) {
-            // Now let's see if the string s matches one of the patterns
+        if (patterns != null && !(patterns.skipsLetters() && letters(start, end))) {
+            // Now let's see if the token matches one of the patterns
             // for non-standard words
-            for (Pattern p : patterns) {
-                Matcher m = p.matcher(s);
-                if (m.find()) {
-                    // The string contains a non-standard word. First check the prefix
-                    // before the matching substring, then add the non-standard word
-                    // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue(s.substring(0, m.start()));
-                    token_queue.add(m.group());
-                    token_start += m.end();
-                    addTokensToQueue();
-                    return true;
-                }
+            view.set(buf, start, end - start);
+            if (finder.find(view)) {
+                // The token contains a non-standard word. First check the prefix
+                // before the matching part, then give the non-standard word
+                // to the sink, then check the remainder of the token.
+                int match_start = start + finder.start, match_end = start + finder.end;
+                addStandardTokens(sink, start, match_start);
+                sink.token(buf, match_start, match_end - match_start);
+                addTokens(sink, match_end, end);
+                return true;
             }
         }
-        // This string contains only standard words
-        return addStandardTokensToQueue(s);
+        // This token contains only standard words
+        return addStandardTokens(sink, start, end);
+    }
+
+    /** Returns true if <code>buf[start, end)</code> are all ASCII letters. */
+    private boolean letters(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = (char) (buf[i] | 0x20);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Adds standard tokens (i.e. tokens not matching any regular
-     * expression) to the queue.
+     * Gives the standard tokens (i.e. tokens not matching any regular
+     * expression) of <code>buf[start, end)</code> to the sink.
      */
-    private boolean addStandardTokensToQueue(String s) {
-        // This string s does not match any specific pattern.
-        // Then split it, considering all punctuation symbols
+    private boolean addStandardTokens(TokenSink sink, int start, int end) {
+        // Split the characters, considering all punctuation symbols
         // to be separators.
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for (int i = 0; i < s.length(); i++) {
-            if (punctuation(s.charAt(i))) {
-                // The string before the punctuation sign is a token
-                // unless it is empty
-                String t = smallbuf.toString();
-                if (t.length() > 0) {
-                    token_queue.add(t);
-                    smallbuf = new StringBuffer();
+        int word_start = start;
+        for (int i = start; i < end; i++) {
+            if (punctuation(buf[i])) {
+                // The characters before the punctuation sign are a token
+                // unless they are empty
+                if (i > word_start) {
+                    sink.token(buf, word_start, i - word_start);
                     tokens_found = true;
                 }
                 if (!remove_punctuation) {
-                    token_queue.add("" + s.charAt(i));
+                    sink.token(buf, i, 1);
                     tokens_found = true;
                 }
-            } else {
-                smallbuf.append(s.charAt(i));
+                word_start = i + 1;
             }
         }
-        // The string after the last punctuation sign is a token
-        // unless it is empty
-        String t = smallbuf.toString();
-        if (t.length() > 0) {
-            token_queue.add(t);
+        // The characters after the last punctuation sign are a token
+        // unless they are empty
+        if (end > word_start) {
+            sink.token(buf, word_start, end - word_start);
             tokens_found = true;
         }
         return tokens_found;
     }
 
+    /**
+     * A part of the buffer as a CharSequence, so that the patterns can be
+     * matched without copying the token.
+     */
+    private static class CharView implements CharSequence {
+        char[] buf;
+        int start;
+        int length;
+
+        void set(char[] buf, int start, int length) {
+            this.buf = buf;
+            this.start = start;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return buf[start + index];
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            return new String(buf, start + from, to - from);
+        }
+
+        public String toString() {
+            return new String(buf, start, length);
+        }
+    }
+
     /**
      * Refills the buffer and adds end_of_file "\0" at the appropriate place.
      */
     private void refillBuffer(int start) throws IOException {
-        int chars_read = reader.read(buf, start, BUFFER_LENGTH - start);
-        if (chars_read >= 0 && chars_read < BUFFER_LENGTH - start) {
-            buf[chars_read] = 0;
+        int end = start;
+        int chars_read = 0;
+        while (end < BUFFER_LENGTH && (chars_read = reader.read(buf, end, BUFFER_LENGTH - end)) >= 0) {
+            end += chars_read;
+        }
+        if (end < BUFFER_LENGTH) {
+            buf[end] = 0;
         }
     }
 
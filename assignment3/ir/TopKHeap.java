@@ -0,0 +1,141 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k best scored documents seen so far, in a binary min-heap of
+ * primitive (docID, score) pairs. The worst of the k documents is at the
+ * root, so a new document only needs to be compared to it.
+ *
+ * A higher score is better; of two documents with the same score the one
+ * with the lower docID is better.
+ */
+public class TopKHeap {
+
+    /** The maximum number of documents kept. */
+    private final int k;
+
+    /** The docIDs and scores of the heap, grown on demand up to k. */
+    private int[] docIDs;
+    private double[] scores;
+
+    /** Number of documents in the heap. */
+    private int size = 0;
+
+    /** Number of documents offered to the heap. */
+    private int offered = 0;
+
+    public TopKHeap(int k) {
+        this.k = k;
+        int capacity = Math.max(1, Math.min(k, 1024));
+        docIDs = new int[capacity];
+        scores = new double[capacity];
+    }
+
+    /** Offers a document to the heap, which keeps it if it is among the k best. */
+    public void add(int docID, double score) {
+        offered++;
+        if (k <= 0) {
+            return;
+        }
+        if (size < k) {
+            if (size == docIDs.length) {
+                int capacity = (int) Math.min(k, 2L * size);
+                docIDs = Arrays.copyOf(docIDs, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            docIDs[size] = docID;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (worse(docIDs[0], scores[0], docID, score)) {
+            docIDs[0] = docID;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /** Returns true if the heap holds k documents. */
+    public boolean isFull() {
+        return size >= k;
+    }
+
+    /**
+     * The score a document must beat to enter the heap, or negative
+     * infinity if the heap is not full yet.
+     */
+    public double threshold() {
+        return isFull() && size > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /** Number of documents offered to the heap. */
+    public int offered() {
+        return offered;
+    }
+
+    /**
+     * Empties the heap into a postings list, sorted best first. The list
+     * remembers how many documents were offered as its number of hits.
+     */
+    public PostingsList toPostingsList() {
+        int n = size;
+        // Heap sort: the worst document is moved to the end each round
+        while (size > 1) {
+            swap(0, --size);
+            siftDown(0);
+        }
+        size = 0;
+        PostingsList result = new PostingsList();
+        for (int i = 0; i < n; i++) {
+            result.addPosting(docIDs[i], scores[i]);
+        }
+        result.setHits(offered, true);
+        return result;
+    }
+
+    /** Returns true if document 1 ranks below document 2. */
+    private static boolean worse(int docID1, double score1, int docID2, double score2) {
+        return score1 < score2 || (score1 == score2 && docID1 > docID2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(docIDs[i], scores[i], docIDs[parent], scores[parent])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(docIDs[child + 1], scores[child + 1], docIDs[child], scores[child])) {
+                child++;
+            }
+            if (!worse(docIDs[child], scores[child], docIDs[i], scores[i])) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int d = docIDs[i];
+        docIDs[i] = docIDs[j];
+        docIDs[j] = d;
+        double s = scores[i];
+        scores[i] = scores[j];
+        scores[j] = s;
+    }
+}
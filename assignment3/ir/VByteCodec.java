@@ -0,0 +1,68 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-byte encoding: every integer is stored 7 bits per byte, least
+ * significant bits first. The high bit of a byte is set if more bytes of
+ * the same integer follow.
+ */
+public class VByteCodec extends PostingsCodec {
+
+    void encode(int[] values, int n, ByteArrayOutputStream out) {
+        for (int i = 0; i < n; i++) {
+            write(values[i], out);
+        }
+    }
+
+    /** Appends the variable-byte encoding of <code>v</code> to <code>out</code>. */
+    static void write(int v, ByteArrayOutputStream out) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    Decoder decoder(ByteBuffer buf, int ptr) {
+        return new Decoder(buf, ptr);
+    }
+
+    CompressionType type() {
+        return CompressionType.VBYTE;
+    }
+
+    static class Decoder implements IntDecoder {
+        ByteBuffer buf;
+        int ptr;
+
+        Decoder(ByteBuffer buf, int ptr) {
+            this.buf = buf;
+            this.ptr = ptr;
+        }
+
+        public int next() {
+            int b = buf.get(ptr++);
+            int v = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = buf.get(ptr++);
+                v |= (b & 0x7f) << shift;
+            }
+            return v;
+        }
+
+        public void skip(int n) {
+            while (n > 0) {
+                if (buf.get(ptr++) >= 0) {
+                    n--;
+                }
+            }
+        }
+    }
+}